@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.helpaddons.crosslinkmanager.AbstractHrefResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves relative, {@code /pool/...} and {@code /help/topic/...} links with
+ * {@link AbstractHrefResolver} (the look-ups are constant to measure the path
+ * computations only).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AbstractHrefResolverBenchmark {
+
+    private static class ConstantHrefResolver extends AbstractHrefResolver {
+
+        public ConstantHrefResolver(String sourceHref) {
+            super(sourceHref);
+        }
+
+        @Override
+        protected boolean computeExistsInSourceBundle(String href) {
+            return href.endsWith("inSource.htm");
+        }
+
+        @Override
+        protected String computeTargetBundle(String href) {
+            return "other.bundle";
+        }
+
+        @Override
+        protected String getNotFoundHtmlFile(String hrefPrefix) {
+            return "error404.htm";
+        }
+
+        public String getNotFoundClassName() {
+            return "error404";
+        }
+
+    }
+
+    /** The path of the page which contains the link. */
+    @Param({"topic.htm", "dir/sub/topic.htm"})
+    public String sourceHref;
+
+    private AbstractHrefResolver resolver;
+
+    @Setup
+    public void createResolver() {
+        resolver = new ConstantHrefResolver(sourceHref);
+    }
+
+    @Benchmark
+    public String relativeInSource() {
+        return resolver.resolve("../other/inSource.htm");
+    }
+
+    @Benchmark
+    public String relativeInOtherBundle() {
+        return resolver.resolve("../other/target.htm");
+    }
+
+    @Benchmark
+    public String pool() {
+        return resolver.resolve("/pool/reference/api/Target.html");
+    }
+
+    @Benchmark
+    public String helpTopic() {
+        return resolver.resolve("/help/topic/other.bundle/target.htm");
+    }
+
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all JMH benchmarks of this bundle and writes the results as JSON
+ * (default: {@code benchmarks.json}) to compare them between releases.
+ *
+ * The benchmark classes have to be compiled with the JMH annotation processor
+ * ({@code jmh-generator-annprocess}) on the factory path. The usual JMH
+ * command line options are supported, e.g.
+ * {@code -rff results-1.3.4.json -prof gc PoolRegistry}.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options =
+            new OptionsBuilder().parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(Benchmarks.class.getPackage().getName() + ".*");
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("benchmarks.json");
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.helpaddons.crosslinkmanager.CrossLinksResolvedInputStream;
+import net.sf.helpaddons.crosslinkmanager.IHrefResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Streams a synthetic HTML page through {@link CrossLinksResolvedInputStream}
+ * (byte by byte and in blocks) for different page sizes and link densities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrossLinksResolvedInputStreamBenchmark {
+
+    /** Resolves each link to a constant target in another bundle. */
+    private static final IHrefResolver RESOLVER = new IHrefResolver() {
+
+        public String resolve(String href) {
+            return href.startsWith("missing") ? null : "../other.bundle/target.htm";
+        }
+
+        public String getNotFoundHref(String hrefPrefix) {
+            return "error404.htm";
+        }
+
+        public String getNotFoundClassName() {
+            return "error404";
+        }
+
+    };
+
+    /** The size of the page in bytes. */
+    @Param({"4096", "65536", "1048576"})
+    public int pageSize;
+
+    /** The number of cross links per kilobyte. */
+    @Param({"0", "1", "10"})
+    public int linksPerKilobyte;
+
+    private byte[] page;
+
+    private final byte[] block = new byte[8192];
+
+    @Setup
+    public void createPage() {
+        page = createPage(pageSize, linksPerKilobyte);
+    }
+
+    @Benchmark
+    public int readInBlocks() throws IOException {
+        InputStream in =
+            new CrossLinksResolvedInputStream(new ByteArrayInputStream(page),
+                                              RESOLVER);
+        int size = 0;
+        for (int read = in.read(block); read >= 0; read = in.read(block)) {
+            size += read;
+        }
+        in.close();
+        return size;
+    }
+
+    @Benchmark
+    public void readByteByByte(Blackhole blackhole) throws IOException {
+        InputStream in =
+            new CrossLinksResolvedInputStream(new ByteArrayInputStream(page),
+                                              RESOLVER);
+        for (int b = in.read(); b >= 0; b = in.read()) {
+            blackhole.consume(b);
+        }
+        in.close();
+    }
+
+    /**
+     * @param size the size of the page in bytes
+     * @param linksPerKilobyte the number of cross links per kilobyte (every
+     *                         tenth link cannot be resolved)
+     * @return a HTML page with paragraphs and cross links
+     */
+    static byte[] createPage(int size, int linksPerKilobyte) {
+        StringBuilder html = new StringBuilder(size + 1024);
+        html.append("<html><head><title>Benchmark</title></head><body>\n");
+        int links = 0;
+        while (html.length() < size) {
+            int linksExpected = (int) ((long) html.length() * linksPerKilobyte / 1024);
+            if (links < linksExpected) {
+                html.append("<!--a href=\"")
+                    .append(links % 10 == 9 ? "missing" : "dir/topic")
+                    .append(links)
+                    .append(".htm\"-->link ")
+                    .append(links)
+                    .append("<!--/a-->\n");
+                links++;
+            } else {
+                html.append("<p>Lorem ipsum <b>dolor</b> sit amet, consectetur")
+                    .append(" adipisici elit, sed eiusmod tempor.</p>\n");
+            }
+        }
+        html.setLength(size - "</body></html>".length());
+        html.append("</body></html>");
+        return html.toString().getBytes();
+    }
+
+}
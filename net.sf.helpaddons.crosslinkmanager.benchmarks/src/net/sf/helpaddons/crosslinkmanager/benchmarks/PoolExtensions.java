@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IContributor;
+import org.eclipse.core.runtime.IExtension;
+
+/**
+ * Minimal "contentPools" extensions without an extension registry (copied
+ * from the {@code PoolRegistryTest} of the tests bundle).
+ */
+class PoolExtensions {
+
+    private PoolExtensions() {
+        // not instantiable
+    }
+
+    static class PoolExtension implements IExtension {
+
+        private final String contributor;
+        private final List<PoolElement> pools;
+        private final List<ErrorPageElement> errorPages;
+
+        public PoolExtension(String contributor,
+                             List<PoolElement> pools,
+                             List<ErrorPageElement> errorPages) {
+            this.contributor = contributor;
+            this.pools = pools;
+            this.errorPages = errorPages;
+        }
+
+        @Override
+        public IConfigurationElement[] getConfigurationElements() {
+            List<IConfigurationElement> result =
+                new ArrayList<IConfigurationElement>();
+            result.addAll(pools);
+            result.addAll(errorPages);
+            return result.toArray(new IConfigurationElement[result.size()]);
+        }
+
+        @Override
+        public String getNamespace() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getNamespaceIdentifier() {
+            return contributor;
+        }
+
+        @Override
+        public IContributor getContributor() {
+            return new IContributor() {
+
+                @Override
+                public String getName() {
+                    return contributor;
+                }
+            };
+        }
+
+        @Override
+        public String getExtensionPointUniqueIdentifier() {
+            return "net.sf.helpaddons.crosslinkmanager.contentPools";
+        }
+
+        @Override
+        public String getLabel() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getLabel(String locale) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getSimpleIdentifier() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getUniqueIdentifier() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+    }
+
+    private static abstract class AbstractElement implements IConfigurationElement {
+
+        @Override
+        public Object createExecutableExtension(String propertyName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getAttribute(String attrName, String locale) {
+            return getAttribute(attrName);
+        }
+
+        @Override
+        public String getAttributeAsIs(String name) {
+            return getAttribute(name);
+        }
+
+        @Override
+        public IConfigurationElement[] getChildren() {
+            return new IConfigurationElement[0];
+        }
+
+        @Override
+        public IConfigurationElement[] getChildren(String name) {
+            return new IConfigurationElement[0];
+        }
+
+        @Override
+        public IExtension getDeclaringExtension() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getParent() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getValue() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getValue(String locale) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getValueAsIs() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getNamespace() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getNamespaceIdentifier() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IContributor getContributor() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+    }
+
+    static class PoolElement extends AbstractElement {
+
+        private final String id;
+        private final String bundlesToPrefer;
+
+        public PoolElement(String id,
+                           String bundlesToPrefer) {
+            if (id == null) throw new IllegalArgumentException("id must not be null");
+            this.id = id;
+            this.bundlesToPrefer = bundlesToPrefer;
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            if (name.equals("id")) return id;
+            if (name.equals("bundlesToPrefer")) return bundlesToPrefer;
+            return null;
+        }
+
+        @Override
+        public String[] getAttributeNames() {
+            return bundlesToPrefer == null
+                   ? new String[] {"id"}
+                   : new String[] {"id", "bundlesToPrefer"};
+        }
+
+        @Override
+        public String getName() {
+            return "pool";
+        }
+
+        @Override
+        public int getHandleId() {
+            return 0;
+        }
+
+    }
+
+    static class ErrorPageElement extends AbstractElement {
+
+        private final String prefix;
+
+        private final String href;
+
+        public ErrorPageElement(String prefix, String href) {
+            if (href == null)
+                throw new IllegalArgumentException("href must not be null");
+            this.prefix = prefix;
+            this.href = href;
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            if (name.equals("prefix")) return prefix;
+            if (name.equals("href")) return href;
+            return null;
+        }
+
+        @Override
+        public String[] getAttributeNames() {
+            return prefix == null
+                   ? new String[] {"href"}
+                   : new String[] {"prefix", "href"};
+        }
+
+        @Override
+        public String getName() {
+            return "errorPage";
+        }
+
+        @Override
+        public int getHandleId() {
+            return 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.helpaddons.crosslinkmanager.PoolRegistry;
+import net.sf.helpaddons.crosslinkmanager.benchmarks.PoolExtensions.ErrorPageElement;
+import net.sf.helpaddons.crosslinkmanager.benchmarks.PoolExtensions.PoolElement;
+import net.sf.helpaddons.crosslinkmanager.benchmarks.PoolExtensions.PoolExtension;
+
+import org.eclipse.core.runtime.IExtension;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rebuilds or updates a {@link PoolRegistry} with a large synthetic
+ * configuration: each bundle is a member of two pools, every tenth bundle
+ * prefers two other bundles and has an error page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolRegistryBenchmark {
+
+    /** The number of bundles. */
+    @Param({"100", "1000"})
+    public int bundles;
+
+    /** The number of pools. */
+    @Param({"1", "10"})
+    public int pools;
+
+    private Set<IExtension> extensions;
+
+    private Set<IExtension> installed;
+
+    private final Set<IExtension> none = Collections.emptySet();
+
+    private final PoolRegistry poolRegistry = new PoolRegistry();
+
+    @Setup
+    public void createExtensions() {
+        extensions = new LinkedHashSet<IExtension>();
+        for (int i = 0; i < bundles; i++) {
+            extensions.add(createExtension(i));
+        }
+        installed = Collections.singleton(createExtension(bundles));
+        poolRegistry.changed(extensions);
+    }
+
+    private IExtension createExtension(int bundle) {
+        String bundlesToPrefer = bundle % 10 == 0
+                                 ? "doc" + (bundle + 1) + ", doc" + (bundle + 2)
+                                 : null;
+        List<PoolElement> poolElements = new ArrayList<PoolElement>();
+        poolElements.add(new PoolElement("pool" + bundle % pools,
+                                         bundlesToPrefer));
+        poolElements.add(new PoolElement("pool" + (bundle + 1) % pools,
+                                         null));
+        List<ErrorPageElement> errorPages = new ArrayList<ErrorPageElement>();
+        if (bundle % 10 == 0) {
+            errorPages.add(new ErrorPageElement(null, "errors/404.htm"));
+        }
+        return new PoolExtension("doc" + bundle, poolElements, errorPages);
+    }
+
+    @Benchmark
+    public PoolRegistry fullRebuild() {
+        poolRegistry.changed(extensions);
+        return poolRegistry;
+    }
+
+    @Benchmark
+    public PoolRegistry installAndUninstallBundle() {
+        poolRegistry.changed(installed, none);
+        poolRegistry.changed(none, installed);
+        return poolRegistry;
+    }
+
+}
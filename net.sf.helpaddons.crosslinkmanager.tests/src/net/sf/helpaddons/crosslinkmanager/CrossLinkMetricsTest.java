@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CrossLinkMetricsTest {
+
+    @After
+    public void tearDown() {
+        CrossLinkMetrics.INSTANCE.reset();
+    }
+
+    @Test
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        assertEquals(0, counter.get());
+        counter.increment();
+        counter.add(41);
+        assertEquals(42, counter.get());
+
+        // concurrently: increments of all threads (and stripes) summed up
+        Thread[] threads = new Thread[2 * StripedCounter.STRIPES];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(42 + threads.length * 1000, counter.get());
+
+        counter.reset();
+        assertEquals(0, counter.get());
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // bucket i: less than 2^i (and not less than 2^(i-1)) microseconds
+        long[] expected = new long[LatencyHistogram.BUCKETS];
+        record(histogram, expected, 0, 0);
+        record(histogram, expected, 999, 0);
+        record(histogram, expected, 1000, 1);
+        record(histogram, expected, 1999, 1);
+        record(histogram, expected, 2000, 2);
+        record(histogram, expected, 3999, 2);
+        record(histogram, expected, 4000, 3);
+        record(histogram, expected, 1000L << 29, 30);
+        record(histogram, expected, (1000L << 30) - 1, 30);
+
+        // last bucket: all longer durations
+        record(histogram, expected, 1000L << 30, 31);
+        record(histogram, expected, Long.MAX_VALUE / 2, 31);
+
+        // negative durations (System.nanoTime() not monotonic) are ignored
+        histogram.record(-1);
+
+        assertArrayEquals(expected, histogram.getBuckets());
+        assertEquals(11, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMaxNanos());
+
+        histogram.reset();
+        assertArrayEquals(new long[LatencyHistogram.BUCKETS],
+                          histogram.getBuckets());
+        assertEquals(0, histogram.getTotalNanos());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void testTotalAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3000);
+        histogram.record(1000);
+        histogram.record(2000);
+        assertEquals(3, histogram.getCount());
+        assertEquals(6000, histogram.getTotalNanos());
+        assertEquals(3000, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void testMetrics() {
+        CrossLinkMetrics metrics = CrossLinkMetrics.INSTANCE;
+        metrics.reset();
+        assertEquals(0, metrics.getPageLatencyMeanMicros(), 0);
+
+        metrics.recordPage(2000);
+        metrics.recordPage(4000);
+        metrics.recordRenderedPage(100);
+        assertEquals(2, metrics.getPageRequests());
+        assertEquals(1, metrics.getPagesRendered());
+        assertEquals(100, metrics.getPageBytes());
+        assertEquals(3, metrics.getPageLatencyMeanMicros(), 0);
+        assertEquals(4, metrics.getPageLatencyMaxMicros());
+        assertEquals(1, metrics.getPageLatencyHistogram()[2]);
+        assertEquals(1, metrics.getPageLatencyHistogram()[3]);
+
+        metrics.recordLinkRewrite(1000, true);
+        metrics.recordLinkRewrite(1000, false);
+        assertEquals(2, metrics.getLinkRewrites());
+        assertEquals(1, metrics.getLinksNotResolved());
+
+        metrics.recordLookup(1000, true, true);
+        metrics.recordLookup(1000, false, true);
+        metrics.recordLookup(1000, true, false);
+        assertEquals(1, metrics.getLookupZipHits());
+        assertEquals(1, metrics.getLookupFileHits());
+        assertEquals(1, metrics.getLookupMisses());
+
+        metrics.reset();
+        assertEquals(0, metrics.getPageRequests());
+        assertEquals(0, metrics.getPageBytes());
+        assertEquals(0, metrics.getLinkRewrites());
+        assertEquals(0, metrics.getLookupZipHits());
+    }
+
+    @Test
+    public void testSuspended() throws Exception {
+        final CrossLinkMetrics metrics = CrossLinkMetrics.INSTANCE;
+        metrics.reset();
+        CrossLinkMetrics.setSuspended(true);
+        try {
+            metrics.recordPage(1000);
+
+            // inherited by threads started while suspended
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    metrics.recordLookup(1000, true, true);
+                }
+            };
+            thread.start();
+            thread.join();
+        } finally {
+            CrossLinkMetrics.setSuspended(false);
+        }
+        assertEquals(0, metrics.getPageRequests());
+        assertEquals(0, metrics.getLookupZipHits());
+
+        metrics.recordPage(1000);
+        assertEquals(1, metrics.getPageRequests());
+    }
+
+    private static void record(LatencyHistogram histogram,
+                               long[] expected,
+                               long nanos,
+                               int bucket) {
+        histogram.record(nanos);
+        expected[bucket]++;
+    }
+
+}
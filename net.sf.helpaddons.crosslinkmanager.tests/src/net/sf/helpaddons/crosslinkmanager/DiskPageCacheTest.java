@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+
+public class DiskPageCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testCreateKey() {
+        String key = DiskPageCache.createKey("b", "1.0.0", "a.htm", "de", "h1");
+        assertEquals(40, key.length());
+        assertTrue(key.matches("[0-9a-f]+"));
+        assertEquals(key,
+                     DiskPageCache.createKey("b", "1.0.0", "a.htm", "de", "h1"));
+
+        // each part is relevant, including the hash of the pool configuration
+        assertFalse(key.equals(DiskPageCache.createKey("c", "1.0.0", "a.htm", "de", "h1")));
+        assertFalse(key.equals(DiskPageCache.createKey("b", "1.0.1", "a.htm", "de", "h1")));
+        assertFalse(key.equals(DiskPageCache.createKey("b", "1.0.0", "b.htm", "de", "h1")));
+        assertFalse(key.equals(DiskPageCache.createKey("b", "1.0.0", "a.htm", null, "h1")));
+        assertFalse(key.equals(DiskPageCache.createKey("b", "1.0.0", "a.htm", "de", "h2")));
+    }
+
+    @Test
+    public void testBundleState() throws Exception {
+        File root = temp.newFolder("bundle");
+        TestBundles.createFile(new File(root, "a.htm"), "a");
+        Bundle bundle = TestBundles.create("b", "1.0.0", 1, root);
+        String state = DiskPageCache.getBundleState(bundle);
+        assertEquals(state, DiskPageCache.getBundleState(bundle));
+        String key = createKey(bundle);
+
+        // same version, but modified (e.g. rebuilt and installed again)
+        Bundle modified = TestBundles.create("b", "1.0.0", 2, root);
+        assertFalse(state.equals(DiskPageCache.getBundleState(modified)));
+        assertFalse(key.equals(createKey(modified)));
+
+        // other version
+        assertFalse(key.equals(createKey(TestBundles.create("b", "1.0.1", 1, root))));
+
+        // files of a bundle installed as directory changed
+        TestBundles.createFile(new File(root, "b.htm"), "b");
+        assertFalse(key.equals(createKey(bundle)));
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        File dir = temp.newFolder("cache");
+        DiskPageCache cache = new DiskPageCache(dir, 1000);
+        String key = DiskPageCache.createKey("b", "1.0.0", "a.htm", "de", "h1");
+        assertNull(cache.get(key));
+        cache.put(key, bytes("a"));
+        assertArrayEquals(bytes("a"), cache.get(key));
+
+        // written to a temporary file which has been renamed
+        List<File> files = listFiles(dir);
+        assertEquals(1, files.size());
+        assertEquals(key.substring(2), files.get(0).getName());
+        assertEquals(key.substring(0, 2), files.get(0).getParentFile().getName());
+
+        // already cached pages are not replaced
+        cache.put(key, bytes("b"));
+        assertArrayEquals(bytes("a"), cache.get(key));
+
+        // shared with other instances (e.g. of other processes)
+        assertArrayEquals(bytes("a"), new DiskPageCache(dir, 1000).get(key));
+
+        // other pool configuration: not cached
+        assertNull(cache.get(DiskPageCache.createKey("b", "1.0.0", "a.htm", "de", "h2")));
+
+        // too big
+        String bigKey = DiskPageCache.createKey("b", "1.0.0", "big.htm", "de", "h1");
+        cache.put(bigKey, new byte[1001]);
+        assertNull(cache.get(bigKey));
+        assertEquals(1, listFiles(dir).size());
+
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        File dir = temp.newFolder("cache");
+
+        // written without exceeding the size
+        DiskPageCache writer = new DiskPageCache(dir, 1000000);
+        long now = System.currentTimeMillis();
+        String[] keys = new String[10];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = DiskPageCache.createKey("b", "1.0.0", i + ".htm", null, "h");
+            writer.put(keys[i], new byte[200]);
+
+            // least recently used: 0.htm, most recently used: 9.htm
+            getFile(dir, keys[i]).setLastModified(now - (keys.length - i) * 60000);
+        }
+        File oldTmp = new File(getFile(dir, keys[0]).getParentFile(), "x.tmp");
+        oldTmp.createNewFile();
+        oldTmp.setLastModified(now - 2 * 60 * 60 * 1000);
+        File youngTmp = new File(getFile(dir, keys[0]).getParentFile(), "y.tmp");
+        youngTmp.createNewFile();
+
+        // 2000 bytes exceed 1500: least recently used deleted until <= 90%
+        DiskPageCache cache = new DiskPageCache(dir, 1500);
+        cache.evict();
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i >= 4, getFile(dir, keys[i]).exists());
+        }
+        assertFalse(oldTmp.exists());
+        assertTrue(youngTmp.exists());
+
+        // not exceeded: nothing deleted
+        cache.evict();
+        assertEquals(7, listFiles(dir).size());
+    }
+
+    private static String createKey(Bundle bundle) {
+        return DiskPageCache.createKey(bundle.getSymbolicName(),
+                                       DiskPageCache.getBundleState(bundle),
+                                       "a.htm",
+                                       "de",
+                                       "h1");
+    }
+
+    private static File getFile(File dir, String key) {
+        return new File(new File(dir, key.substring(0, 2)), key.substring(2));
+    }
+
+    private static List<File> listFiles(File dir) {
+        List<File> files = new ArrayList<File>();
+        File[] subDirs = dir.listFiles();
+        if (subDirs == null) return files;
+        for (File subDir : subDirs) {
+            File[] subDirFiles = subDir.listFiles();
+            if (subDirFiles == null) continue;
+            for (File file : subDirFiles) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static byte[] bytes(String text) throws Exception {
+        return text.getBytes("UTF-8");
+    }
+
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedZipTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testStoredAndDeflated() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            big.append("<p>").append(i).append("</p>\n");
+        }
+        File zip = temp.newFile("doc.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            putStored(out, "stored.htm", "stored");
+            putStored(out, "empty.htm", "");
+            putStored(out, "dir/", "");
+
+            // deflated entries are written with data descriptors (sizes and
+            // CRC after the data instead of in the local header)
+            out.putNextEntry(new ZipEntry("deflated.htm"));
+            out.write("deflated".getBytes("UTF-8"));
+            out.putNextEntry(new ZipEntry("dir/big.htm"));
+            out.write(big.toString().getBytes("UTF-8"));
+            out.putNextEntry(new ZipEntry("dir/\u00e4.htm"));
+            out.write("umlaut".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        MappedZip mapped = MappedZip.open(zip);
+        assertNotNull(mapped);
+        assertEquals("stored", read(mapped.getInputStream("stored.htm")));
+        assertEquals("", read(mapped.getInputStream("empty.htm")));
+        assertEquals("deflated", read(mapped.getInputStream("deflated.htm")));
+        assertEquals(big.toString(), read(mapped.getInputStream("dir/big.htm")));
+        assertEquals("umlaut", read(mapped.getInputStream("dir/\u00e4.htm")));
+        assertNull(mapped.getInputStream("dir/"));
+        assertNull(mapped.getInputStream("missing.htm"));
+        assertSameAsZipFile(zip, mapped, "stored.htm", "deflated.htm", "dir/big.htm");
+    }
+
+    @Test
+    public void testDuplicateNames() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        out.putNextEntry(new ZipEntry("a.htm"));
+        out.write("first".getBytes("UTF-8"));
+        out.putNextEntry(new ZipEntry("b.htm"));
+        out.write("second".getBytes("UTF-8"));
+        out.putNextEntry(new ZipEntry("c.htm"));
+        out.write("third".getBytes("UTF-8"));
+        out.close();
+
+        // rename "b.htm" to "a.htm" (ZipOutputStream rejects duplicates)
+        String zipContent =
+            new String(bytes.toByteArray(), "ISO-8859-1").replace("b.htm", "a.htm");
+        File zip = write(temp.newFile("doc.zip"), zipContent.getBytes("ISO-8859-1"));
+
+        // like ZipFile: the last one
+        MappedZip mapped = MappedZip.open(zip);
+        assertEquals("second", read(mapped.getInputStream("a.htm")));
+        assertEquals("third", read(mapped.getInputStream("c.htm")));
+        assertSameAsZipFile(zip, mapped, "a.htm", "c.htm");
+    }
+
+    @Test
+    public void testZip64() throws Exception {
+        File zip = write(temp.newFile("doc.zip"), createZip64("a.htm", "zip64"));
+        assertNull(MappedZip.open(zip));
+
+        // opened like by the super class instead
+        MappedStaticHelpContent content = new MappedStaticHelpContent();
+        assertNull(content.getMappedZip("b/doc.zip", zip));
+        assertEquals("zip64", read(content.openZipEntry("b/doc.zip", zip, "a.htm")));
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        File zip = TestBundles.createFile(temp.newFile("doc.zip"), "no zip");
+        try {
+            MappedZip.open(zip);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        // truncated
+        File valid = TestBundles.createZip(temp.newFile("valid.zip"), "a.htm", "a");
+        byte[] truncated = readFile(valid);
+        byte[] withoutEnd = new byte[truncated.length - 10];
+        System.arraycopy(truncated, 0, withoutEnd, 0, withoutEnd.length);
+        try {
+            MappedZip.open(write(temp.newFile("truncated.zip"), withoutEnd));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        // opened like by the super class which reports the error
+        MappedStaticHelpContent content = new MappedStaticHelpContent();
+        try {
+            content.openZipEntry("b/doc.zip", zip, "a.htm");
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMappingCached() throws Exception {
+        File valid = TestBundles.createZip(temp.newFile("valid.zip"), "a.htm", "a");
+        byte[] validContent = readFile(valid);
+        File zip = write(temp.newFile("doc.zip"), new byte[validContent.length]);
+        long lastModified = zip.lastModified();
+        MappedStaticHelpContent content = new MappedStaticHelpContent();
+
+        // corrupt: not mapped again as long as not modified...
+        assertNull(content.getMappedZip("b/doc.zip", zip));
+        write(zip, validContent);
+        zip.setLastModified(lastModified);
+        assertNull(content.getMappedZip("b/doc.zip", zip));
+
+        // ...but if modified
+        zip.setLastModified(lastModified - 10000);
+        MappedZip mapped = content.getMappedZip("b/doc.zip", zip);
+        assertNotNull(mapped);
+        assertSame(mapped, content.getMappedZip("b/doc.zip", zip));
+        assertEquals("a", read(content.openZipEntry("b/doc.zip", zip, "a.htm")));
+
+        // modified valid zip file
+        TestBundles.createZip(zip, "a.htm", "modified");
+        MappedZip remapped = content.getMappedZip("b/doc.zip", zip);
+        assertNotSame(mapped, remapped);
+        assertEquals("modified", read(remapped.getInputStream("a.htm")));
+
+        // flushed
+        content.flushZips("b/");
+        assertNotSame(remapped, content.getMappedZip("b/doc.zip", zip));
+    }
+
+    private static void putStored(ZipOutputStream out,
+                                  String name,
+                                  String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    /**
+     * @return a zip file with one stored entry with a ZIP64 "end of central
+     *         directory" record (the counts, size and offset in the regular
+     *         "end of central directory" record are set to "see ZIP64")
+     */
+    private static byte[] createZip64(String name, String content)
+            throws IOException {
+        byte[] nameBytes = name.getBytes("UTF-8");
+        byte[] data = content.getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int crcValue = (int) crc.getValue();
+        ByteBuffer zip = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        // local header and data
+        zip.putInt(0x04034b50).putShort((short) 20).putShort((short) 0)
+           .putShort((short) 0).putInt(0).putInt(crcValue)
+           .putInt(data.length).putInt(data.length)
+           .putShort((short) nameBytes.length).putShort((short) 0)
+           .put(nameBytes).put(data);
+
+        // central directory
+        int directoryOffset = zip.position();
+        zip.putInt(0x02014b50).putShort((short) 45).putShort((short) 20)
+           .putShort((short) 0).putShort((short) 0).putInt(0).putInt(crcValue)
+           .putInt(data.length).putInt(data.length)
+           .putShort((short) nameBytes.length).putShort((short) 0)
+           .putShort((short) 0).putShort((short) 0).putShort((short) 0)
+           .putInt(0).putInt(0).put(nameBytes);
+        int directorySize = zip.position() - directoryOffset;
+
+        // ZIP64 "end of central directory" record and locator
+        int zip64End = zip.position();
+        zip.putInt(0x06064b50).putLong(44).putShort((short) 45)
+           .putShort((short) 45).putInt(0).putInt(0).putLong(1).putLong(1)
+           .putLong(directorySize).putLong(directoryOffset);
+        zip.putInt(0x07064b50).putInt(0).putLong(zip64End).putInt(1);
+
+        // "end of central directory" record
+        zip.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+           .putShort((short) 0xFFFF).putShort((short) 0xFFFF)
+           .putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) 0);
+
+        byte[] result = new byte[zip.position()];
+        zip.flip();
+        zip.get(result);
+        return result;
+    }
+
+    private static void assertSameAsZipFile(File zip,
+                                            MappedZip mapped,
+                                            String... names) throws IOException {
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            for (String name : names) {
+                ZipEntry entry = zipFile.getEntry(name);
+                assertTrue(name, entry != null);
+                assertEquals(name,
+                             read(zipFile.getInputStream(entry)),
+                             read(mapped.getInputStream(name)));
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static File write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class RenderedPageCacheTest {
+
+    private static final String PAGE = "<html><body><p>page</p></body></html>";
+
+    /** Static help content stub: pages of the bundle "b". */
+    private static class Content implements IStaticHelpContent {
+
+        private final Map<String, String> pages = new HashMap<String, String>();
+
+        /** The number of opened resources. */
+        private int opened = 0;
+
+        /** Executed when a resource is opened (if not {@code null}). */
+        private Runnable onOpen;
+
+        /** {@code true} if the opened resources fail while read. */
+        private boolean failing = false;
+
+        public InputStream getInputStream(String plugin, String href, Locale locale) {
+            return getInputStream(plugin, href, locale == null ? null : locale.toString());
+        }
+
+        public InputStream getInputStream(String plugin, String href, String locale) {
+            int queryIndex = href.indexOf('?');
+            String path = queryIndex < 0 ? href : href.substring(0, queryIndex);
+            String page = plugin.equals("b") ? pages.get(path) : null;
+            if (page == null) return null;
+            opened++;
+            if (onOpen != null) {
+                onOpen.run();
+            }
+            if (failing) {
+                return new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("failing");
+                    }
+                };
+            }
+            return new ByteArrayInputStream(toBytes(page));
+        }
+
+        public boolean checkExists(String pluginId, String href, Locale locale) {
+            return getInputStream(pluginId, href, locale) != null;
+        }
+
+        public boolean checkExists(String pluginId, String href, String locale) {
+            return getInputStream(pluginId, href, locale) != null;
+        }
+
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBySize() {
+        RenderedPageCache cache = new RenderedPageCache(10, false);
+        cache.put("a", new byte[4], 0);
+        cache.put("b", new byte[4], 0);
+        assertEquals(2, cache.getPageCount());
+        assertEquals(8, cache.getSize());
+
+        // "a" used: "b" is evicted first
+        assertNotNull(cache.get("a"));
+        cache.put("c", new byte[4], 0);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(8, cache.getSize());
+
+        // replaced
+        cache.put("c", new byte[2], 0);
+        assertEquals(6, cache.getSize());
+
+        // too big: not added
+        cache.put("d", new byte[11], 0);
+        assertNull(cache.get("d"));
+        assertEquals(6, cache.getSize());
+
+        // big page evicts all others
+        cache.put("e", new byte[10], 0);
+        assertEquals(1, cache.getPageCount());
+        assertEquals(10, cache.getSize());
+
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testGeneration() {
+        RenderedPageCache cache = new RenderedPageCache(100, false);
+        long generation = cache.getGeneration();
+        cache.put("a", new byte[1], generation);
+        cache.invalidate();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+
+        // rendered before the invalidation: not added
+        cache.put("b", new byte[1], generation);
+        assertNull(cache.get("b"));
+        cache.put("b", new byte[1], cache.getGeneration());
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    public void testCachedPage() throws Exception {
+        RenderedPageCache cache = new RenderedPageCache(1000, false);
+        Content content = new Content();
+        content.pages.put("a.htm", PAGE);
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm?query")));
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm")));
+        assertEquals(1, content.opened);
+        assertEquals(1, cache.getPageCount());
+
+        // not found: not cached
+        assertNotNull(getHtml(cache, content, "missing.htm"));
+        assertEquals(1, cache.getPageCount());
+
+        // other locale
+        read(HelpContentWithCrossLinks.getHtmlInputStream(cache,
+                                                          content,
+                                                          "b",
+                                                          "a.htm",
+                                                          Locale.GERMAN));
+        assertEquals(2, content.opened);
+    }
+
+    @Test
+    public void testInvalidatedWhileRendering() throws Exception {
+        final RenderedPageCache cache = new RenderedPageCache(1000, false);
+        Content content = new Content();
+        content.pages.put("a.htm", PAGE);
+        content.onOpen = new Runnable() {
+            public void run() {
+                cache.invalidate();
+            }
+        };
+
+        // rendered with the outdated configuration: returned but not cached
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm")));
+        assertEquals(0, cache.getPageCount());
+
+        content.onOpen = null;
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm")));
+        assertEquals(1, cache.getPageCount());
+    }
+
+    @Test
+    public void testReadFailure() throws Exception {
+        RenderedPageCache cache = new RenderedPageCache(1000, false);
+        Content content = new Content();
+        content.pages.put("a.htm", PAGE);
+        content.failing = true;
+
+        // not reported as missing page, but failing like without cache
+        InputStream in = getHtml(cache, content, "a.htm");
+        assertNotNull(in);
+        try {
+            read(in);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, cache.getPageCount());
+    }
+
+    @Test
+    public void testGzipMode() throws Exception {
+        RenderedPageCache cache = new RenderedPageCache(1000, true);
+        Content content = new Content();
+        content.pages.put("a.htm", PAGE);
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm")));
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm")));
+        assertEquals(1, content.opened);
+
+        // stored compressed
+        byte[] cached = cache.get(RenderedPageCache.createKey("b", "a.htm", null));
+        assertEquals(PAGE, read(new GZIPInputStream(new ByteArrayInputStream(cached))));
+        assertEquals(cached.length, cache.getSize());
+    }
+
+    @Test
+    public void testGetGzippedPage() throws Exception {
+        RenderedPageCache cache = new RenderedPageCache(1000, true);
+        Content content = new Content();
+        content.pages.put("a.htm", PAGE);
+        byte[] gzipped =
+            HelpContentWithCrossLinks.getGzippedPage(cache, content, "b", "a.htm", null);
+        assertEquals(PAGE, read(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+
+        // cached: neither rendered nor compressed again
+        assertSame(gzipped,
+                   HelpContentWithCrossLinks.getGzippedPage(cache, content, "b", "a.htm", null));
+        assertEquals(1, content.opened);
+
+        // shared with getHtmlInputStream(...)
+        assertEquals(PAGE, read(getHtml(cache, content, "a.htm")));
+        assertEquals(1, content.opened);
+
+        // not found
+        assertNull(HelpContentWithCrossLinks.getGzippedPage(cache, content, "b", "x.htm", null));
+
+        // cannot be read: not cached
+        content.pages.put("c.htm", PAGE);
+        content.failing = true;
+        assertNull(HelpContentWithCrossLinks.getGzippedPage(cache, content, "b", "c.htm", null));
+        assertEquals(1, cache.getPageCount());
+
+        // no (X)HTML page or no cache in gzip mode (plug-in not started)
+        assertNull(HelpContentWithCrossLinks.getGzippedPage("b", "a.gif", null));
+        assertNull(HelpContentWithCrossLinks.getGzippedPage("b", "a.htm", null));
+    }
+
+    private static InputStream getHtml(RenderedPageCache cache,
+                                       IStaticHelpContent content,
+                                       String href) {
+        return HelpContentWithCrossLinks.getHtmlInputStream(cache,
+                                                            content,
+                                                            "b",
+                                                            href,
+                                                            null);
+    }
+
+    private static byte[] toBytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+}
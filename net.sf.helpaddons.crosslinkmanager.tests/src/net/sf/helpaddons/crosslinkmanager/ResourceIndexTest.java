@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+
+public class ResourceIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testIsIndexable() {
+        assertTrue(ResourceIndex.isIndexable("a.htm"));
+        assertTrue(ResourceIndex.isIndexable("dir/a.htm"));
+        assertTrue(ResourceIndex.isIndexable("dir/a.htm#anchor"));
+        assertTrue(ResourceIndex.isIndexable("dir.x/a.b.htm"));
+
+        // not normalized
+        assertFalse(ResourceIndex.isIndexable(""));
+        assertFalse(ResourceIndex.isIndexable("/a.htm"));
+        assertFalse(ResourceIndex.isIndexable("dir\\a.htm"));
+        assertFalse(ResourceIndex.isIndexable("a%20b.htm"));
+        assertFalse(ResourceIndex.isIndexable("dir//a.htm"));
+        assertFalse(ResourceIndex.isIndexable("./a.htm"));
+        assertFalse(ResourceIndex.isIndexable("dir/../a.htm"));
+        assertFalse(ResourceIndex.isIndexable("dir/.."));
+        assertFalse(ResourceIndex.isIndexable("dir/."));
+    }
+
+    @Test
+    public void testRemoveAnchor() {
+        assertEquals("a.htm", ResourceIndex.removeAnchor("a.htm"));
+        assertEquals("a.htm", ResourceIndex.removeAnchor("a.htm#anchor"));
+        assertEquals("", ResourceIndex.removeAnchor("#anchor"));
+    }
+
+    @Test
+    public void testPathPrefixes() {
+        assertEquals(Arrays.asList("ws/gtk/", "os/linux/", "nl/de/CH/", "nl/de/", ""),
+                     StaticHelpContent.computePathPrefix("gtk", "linux", "de_CH"));
+        assertEquals(Arrays.asList("ws/win32/", "nl/de/", ""),
+                     StaticHelpContent.computePathPrefix("win32", "OS_UNKNOWN", "de"));
+        assertEquals(Arrays.asList(""),
+                     StaticHelpContent.computePathPrefix(null, null, null));
+    }
+
+    @Test
+    public void testExists() throws Exception {
+        File root = temp.newFolder("bundle");
+        TestBundles.createFile(new File(root, "a.htm"), "a");
+        TestBundles.createFile(new File(root, "dir/b.htm"), "b");
+        TestBundles.createFile(new File(root, "nl/de/c.htm"), "c");
+        File deZip = TestBundles.createZip(new File(root, "nl/de/doc.zip"),
+                                           "d.htm", "d",
+                                           "dir/", "");
+        File zip = TestBundles.createZip(new File(root, "doc.zip"),
+                                         "e.htm", "e");
+        ResourceIndex index =
+            ResourceIndex.create(TestBundles.create("b", "1.0.0", 1, root));
+        String[] prefixes = { "nl/de/", "" };
+        String[] docZipPaths = { "nl/de/doc.zip", "doc.zip" };
+        File[] docZips = { deZip, zip };
+
+        // zip entries: anchor ignored
+        assertTrue(exists(index, prefixes, docZipPaths, docZips, "d.htm"));
+        assertTrue(exists(index, prefixes, docZipPaths, docZips, "d.htm#anchor"));
+        assertTrue(exists(index, prefixes, docZipPaths, docZips, "e.htm"));
+        assertFalse(exists(index, prefixes, docZipPaths, docZips, "dir/"));
+
+        // files of the locale and of the root
+        assertTrue(exists(index, prefixes, docZipPaths, docZips, "c.htm"));
+        assertTrue(exists(index, prefixes, docZipPaths, docZips, "a.htm"));
+        assertTrue(exists(index, prefixes, docZipPaths, docZips, "dir/b.htm"));
+        assertFalse(exists(index, prefixes, docZipPaths, docZips, "de/c.htm"));
+
+        // not in the locale of the other prefixes
+        assertFalse(exists(index,
+                           new String[] { "" },
+                           new String[] { "doc.zip" },
+                           new File[] { zip },
+                           "d.htm"));
+        assertFalse(exists(index,
+                           new String[] { "" },
+                           new String[] { "doc.zip" },
+                           new File[] { zip },
+                           "c.htm"));
+
+        // zip file not on the file system
+        assertFalse(exists(index, prefixes, docZipPaths, new File[2], "e.htm"));
+
+        // case
+        assertFalse(exists(index, prefixes, docZipPaths, docZips, "A.htm"));
+        assertTrue(index.containsFileIgnoringCase("A.htm"));
+        assertTrue(index.containsFileIgnoringCase("DIR/b.HTM"));
+        assertFalse(index.containsFileIgnoringCase("x.htm"));
+    }
+
+    @Test
+    public void testUnreadableZipNotCached() throws Exception {
+        File root = temp.newFolder("bundle");
+        File zip = TestBundles.createFile(new File(root, "doc.zip"), "not yet a zip");
+        ResourceIndex index =
+            ResourceIndex.create(TestBundles.create("b", "1.0.0", 1, root));
+        assertTrue(index.getZipEntries("doc.zip", zip).isEmpty());
+        assertFalse(index.containsZipEntry("doc.zip", zip, "a.htm"));
+
+        // retried on next look-up
+        TestBundles.createZip(zip, "a.htm", "a");
+        assertTrue(index.containsZipEntry("doc.zip", zip, "a.htm"));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File root = temp.newFolder("bundle");
+        TestBundles.createFile(new File(root, "a.htm"), "a");
+        TestBundles.createFile(new File(root, "ab.htm"), "ab");
+        TestBundles.createFile(new File(root, "abc/d.htm"), "d");
+        TestBundles.createFile(new File(root, "b.htm"), "b");
+        File zip = TestBundles.createZip(new File(root, "doc.zip"),
+                                         "x.htm", "x",
+                                         "xy/z.htm", "z",
+                                         "xy/\u00e4.htm", "ae");
+        Bundle bundle = TestBundles.create("b", "1.0.0", 1, root);
+        ResourceIndex index = ResourceIndex.create(bundle);
+        index.getZipEntries("doc.zip", zip);
+
+        // front-coded paths (sharing prefixes) of the files and zip entries
+        ResourceIndex read = writeAndRead(index);
+        assertEquals("b", read.getSymbolicName());
+        assertEquals(new HashSet<String>(Arrays.asList("a.htm",
+                                                       "ab.htm",
+                                                       "abc/d.htm",
+                                                       "b.htm",
+                                                       "doc.zip")),
+                     read.getFiles());
+        assertEquals(index.getFiles(), read.getFiles());
+        assertEquals(new HashSet<String>(Arrays.asList("x.htm",
+                                                       "xy/z.htm",
+                                                       "xy/\u00e4.htm")),
+                     read.getZipEntries("doc.zip", zip));
+        assertTrue(read.isIndexOf(bundle));
+
+        // empty
+        File emptyRoot = temp.newFolder("empty");
+        Bundle emptyBundle = TestBundles.create("e", "", 1, emptyRoot);
+        ResourceIndex empty = writeAndRead(ResourceIndex.create(emptyBundle));
+        assertTrue(empty.getFiles().isEmpty());
+        assertTrue(empty.isIndexOf(emptyBundle));
+    }
+
+    @Test
+    public void testZipEntriesOfReadIndex() throws Exception {
+        File root = temp.newFolder("bundle");
+        File zip = TestBundles.createZip(new File(root, "doc.zip"), "a.htm", "a");
+        long lastModified = zip.lastModified() - 10000;
+        zip.setLastModified(lastModified);
+        ResourceIndex index =
+            ResourceIndex.create(TestBundles.create("b", "1.0.0", 1, root));
+        assertTrue(index.containsZipEntry("doc.zip", zip, "a.htm"));
+        byte[] written = write(index);
+
+        // same modification time and size: persisted entries used
+        TestBundles.createZip(zip, "b.htm", "b");
+        zip.setLastModified(lastModified);
+        assertTrue(read(written).containsZipEntry("doc.zip", zip, "a.htm"));
+
+        // otherwise read again
+        zip.setLastModified(lastModified + 5000);
+        ResourceIndex read = read(written);
+        assertFalse(read.containsZipEntry("doc.zip", zip, "a.htm"));
+        assertTrue(read.containsZipEntry("doc.zip", zip, "b.htm"));
+    }
+
+    @Test
+    public void testIsIndexOf() throws Exception {
+        File root = temp.newFolder("bundle");
+        TestBundles.createFile(new File(root, "a.htm"), "a");
+        TestBundles.createFile(new File(root, "dir/b.htm"), "b");
+        Bundle bundle = TestBundles.create("b", "1.0.0", 1, root);
+        ResourceIndex index = writeAndRead(ResourceIndex.create(bundle));
+        assertTrue(index.isUpToDate(bundle));
+        assertTrue(index.isIndexOf(bundle));
+
+        // other symbolic name, version or modification time of the bundle
+        assertFalse(index.isIndexOf(TestBundles.create("c", "1.0.0", 1, root)));
+        assertFalse(index.isIndexOf(TestBundles.create("b", "1.0.1", 1, root)));
+        Bundle modified = TestBundles.create("b", "1.0.0", 2, root);
+        assertFalse(index.isUpToDate(modified));
+        assertFalse(index.isIndexOf(modified));
+
+        // files of a directory bundle added, removed or renamed
+        File added = TestBundles.createFile(new File(root, "dir/c.htm"), "c");
+        assertFalse(index.isIndexOf(bundle));
+        index = writeAndRead(ResourceIndex.create(bundle));
+        assertTrue(index.isIndexOf(bundle));
+        added.delete();
+        assertFalse(index.isIndexOf(bundle));
+        index = writeAndRead(ResourceIndex.create(bundle));
+        assertTrue(index.isIndexOf(bundle));
+        File dir = new File(root, "dir");
+        long dirLastModified = dir.lastModified();
+        new File(dir, "b.htm").renameTo(new File(dir, "x.htm"));
+        dir.setLastModified(dirLastModified + 10000);
+        assertFalse(index.isIndexOf(bundle));
+
+        // changes of directory bundles within a run are not detected
+        assertTrue(index.isUpToDate(bundle));
+    }
+
+    private static ResourceIndex writeAndRead(ResourceIndex index)
+            throws IOException {
+        return read(write(index));
+    }
+
+    private static byte[] write(ResourceIndex index) throws IOException {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(written);
+        index.write(out);
+        out.close();
+        return written.toByteArray();
+    }
+
+    private static ResourceIndex read(byte[] written) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(written));
+        ResourceIndex read = ResourceIndex.read(in);
+        assertEquals(-1, in.read());
+        return read;
+    }
+
+    private static boolean exists(ResourceIndex index,
+                                  String[] prefixes,
+                                  String[] docZipPaths,
+                                  File[] docZips,
+                                  String href) {
+        return StaticHelpContent.exists(index, prefixes, docZipPaths, docZips, href);
+    }
+
+}
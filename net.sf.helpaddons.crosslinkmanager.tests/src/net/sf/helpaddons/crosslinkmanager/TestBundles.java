@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Test utilities: a {@link Bundle} stub backed by a directory (without a
+ * running OSGi framework) and creation of files and zip files.
+ */
+class TestBundles {
+
+    private TestBundles() {
+        // static methods only
+    }
+
+    /**
+     * @param symbolicName the bundle symbolic name
+     * @param version the bundle version
+     * @param lastModified the value to return by
+     *                     {@link Bundle#getLastModified()}
+     * @param root the directory containing the files of the bundle (listed
+     *             on each {@link Bundle#findEntries(String, String, boolean)}
+     *             call)
+     * @return the bundle stub
+     */
+    static Bundle create(final String symbolicName,
+                         final String version,
+                         final long lastModified,
+                         final File root) {
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                String name = method.getName();
+                if (name.equals("getSymbolicName")) return symbolicName;
+                if (name.equals("getLastModified")) return Long.valueOf(lastModified);
+                if (name.equals("getHeaders")) {
+                    Hashtable<String, String> headers = new Hashtable<String, String>();
+                    headers.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+                    headers.put(Constants.BUNDLE_VERSION, version);
+                    return headers;
+                }
+                if (name.equals("getEntry")) {
+                    return new File(root, (String) args[0]).toURI().toURL();
+                }
+                if (name.equals("findEntries")) {
+                    List<URL> urls = new ArrayList<URL>();
+                    list(root, "/", urls);
+                    return Collections.enumeration(urls);
+                }
+                if (name.equals("hashCode")) return Integer.valueOf(System.identityHashCode(proxy));
+                if (name.equals("equals")) return Boolean.valueOf(proxy == args[0]);
+                if (name.equals("toString")) return symbolicName + '_' + version;
+                throw new UnsupportedOperationException(name);
+            }
+        };
+        return (Bundle) Proxy.newProxyInstance(Bundle.class.getClassLoader(),
+                                               new Class<?>[] { Bundle.class },
+                                               handler);
+    }
+
+    /**
+     * Lists the files like {@link Bundle#findEntries(String, String, boolean)}
+     * as URLs with the path relative to the bundle root, e.g. "/dir/a.htm"
+     * and "/dir/" (not to be opened).
+     */
+    private static void list(File dir, String path, List<URL> urls)
+            throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String filePath = path + file.getName();
+            if (file.isDirectory()) {
+                urls.add(new URL("file", "", filePath + '/'));
+                list(file, filePath + '/', urls);
+            } else {
+                urls.add(new URL("file", "", filePath));
+            }
+        }
+    }
+
+    /**
+     * Creates a file (and its parent directories).
+     *
+     * @param file the file to create
+     * @param content the content of the file
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    static File createFile(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Creates a zip file (and its parent directories) with deflated entries.
+     *
+     * @param file the zip file to create
+     * @param nameAndContent the names and contents of the entries
+     *                       (alternately)
+     * @return the zip file
+     * @throws IOException if the zip file cannot be written
+     */
+    static File createZip(File file, String... nameAndContent)
+            throws IOException {
+        file.getParentFile().mkdirs();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < nameAndContent.length; i += 2) {
+                out.putNextEntry(new ZipEntry(nameAndContent[i]));
+                out.write(nameAndContent[i + 1].getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
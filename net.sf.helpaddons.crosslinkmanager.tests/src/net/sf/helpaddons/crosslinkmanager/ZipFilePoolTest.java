@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipFilePoolTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testGetInputStream() throws Exception {
+        File zip = TestBundles.createZip(temp.newFile("doc.zip"),
+                                         "a.htm", "a",
+                                         "dir/", "");
+        ZipFilePool pool = new ZipFilePool(2);
+        assertEquals("a", read(pool.getInputStream("b/doc.zip", zip, "a.htm")));
+        assertNull(pool.getInputStream("b/doc.zip", zip, "x.htm"));
+        assertNull(pool.getInputStream("b/doc.zip", zip, "dir/"));
+        assertEquals(1, pool.getOpenZipFiles());
+    }
+
+    @Test
+    public void testEvictionWhileBorrowed() throws Exception {
+        File zipA = TestBundles.createZip(temp.newFile("a.zip"), "a.htm", "a");
+        File zipB = TestBundles.createZip(temp.newFile("b.zip"), "b.htm", "b");
+        ZipFilePool pool = new ZipFilePool(1);
+        InputStream borrowed = pool.getInputStream("a/doc.zip", zipA, "a.htm");
+
+        // evicts "a/doc.zip" which must not be closed while borrowed
+        assertEquals("b", read(pool.getInputStream("b/doc.zip", zipB, "b.htm")));
+        assertEquals(2, pool.getOpenZipFiles());
+        assertEquals("a", read(borrowed));
+        assertEquals(1, pool.getOpenZipFiles());
+
+        // opened again
+        assertEquals("a", read(pool.getInputStream("a/doc.zip", zipA, "a.htm")));
+        assertEquals(1, pool.getOpenZipFiles());
+    }
+
+    @Test
+    public void testReopenIfModified() throws Exception {
+        File zip = TestBundles.createZip(temp.newFile("doc.zip"), "a.htm", "1");
+        ZipFilePool pool = new ZipFilePool(2);
+        assertEquals("1", read(pool.getInputStream("b/doc.zip", zip, "a.htm")));
+
+        // other length
+        TestBundles.createZip(zip, "a.htm", "22");
+        assertEquals("22", read(pool.getInputStream("b/doc.zip", zip, "a.htm")));
+        assertEquals(1, pool.getOpenZipFiles());
+
+        // same length, other modification time
+        long lastModified = zip.lastModified();
+        TestBundles.createZip(zip, "a.htm", "33");
+        zip.setLastModified(lastModified - 10000);
+        assertEquals("33", read(pool.getInputStream("b/doc.zip", zip, "a.htm")));
+        assertEquals(1, pool.getOpenZipFiles());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        File zipA = TestBundles.createZip(temp.newFile("a.zip"), "a.htm", "a");
+        File zipB = TestBundles.createZip(temp.newFile("b.zip"), "b.htm", "b");
+        ZipFilePool pool = new ZipFilePool(4);
+        InputStream borrowed = pool.getInputStream("a/doc.zip", zipA, "a.htm");
+        read(pool.getInputStream("b/doc.zip", zipB, "b.htm"));
+        assertEquals(2, pool.getOpenZipFiles());
+
+        // other prefix: not closed
+        pool.remove("c/");
+        assertEquals(2, pool.getOpenZipFiles());
+
+        // not in use: closed immediately
+        pool.remove("b/");
+        assertEquals(1, pool.getOpenZipFiles());
+
+        // in use: closed when released
+        pool.removeAll();
+        assertEquals(1, pool.getOpenZipFiles());
+        assertEquals("a", read(borrowed));
+        assertEquals(0, pool.getOpenZipFiles());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -65,6 +65,24 @@ public class AbstractHrefResolverTest {
         // TODO check if fragments can be included in help content producer calls?
     }
 
+    @Test
+    public void testNotNormalizedPaths() throws Exception {
+        assertResolved("../../pool/dir/target.htm",
+                       "dir/page.htm",
+                       "./sub/../target.htm");
+        assertResolved("../../../pool/dir/sub/target.htm",
+                       "dir//sub/page.htm",
+                       "target.htm");
+        assertResolved("../../../pool/dir/target.htm",
+                       "dir/./sub/page.htm",
+                       "../target.htm");
+        assertResolved("../pool/target.htm", "dir/../page.htm", "target.htm");
+        assertResolved("../../outside.htm", "dir/page.htm", "../../outside.htm");
+        assertResolved("../pool/dir/target.htm/",
+                       "page.htm",
+                       "dir/target.htm/");
+    }
+
     @Test
     public void testExplicitCrossLinks() throws Exception {
         assertResolved("/help/topic/other.plugin/topic.htm",
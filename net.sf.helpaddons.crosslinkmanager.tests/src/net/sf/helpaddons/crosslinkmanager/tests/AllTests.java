@@ -10,15 +10,29 @@
  *******************************************************************************/
 package net.sf.helpaddons.crosslinkmanager.tests;
 
+import net.sf.helpaddons.crosslinkmanager.CrossLinkMetricsTest;
+import net.sf.helpaddons.crosslinkmanager.DiskPageCacheTest;
+import net.sf.helpaddons.crosslinkmanager.MappedZipTest;
+import net.sf.helpaddons.crosslinkmanager.RenderedPageCacheTest;
+import net.sf.helpaddons.crosslinkmanager.ResourceIndexTest;
+import net.sf.helpaddons.crosslinkmanager.ZipFilePoolTest;
+
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({ AbstractHrefResolverTest.class,
+                CrossLinkMetricsTest.class,
                 CrossLinksResolvedInputStreamTest.class,
+                DiskPageCacheTest.class,
                 HelpContentWithCrossLinksTest.class,
-                PoolRegistryTest.class})
+                MappedZipTest.class,
+                PoolRegistryTest.class,
+                RenderedPageCacheTest.class,
+                ResourceIndexTest.class,
+                StartupTimelineTest.class,
+                ZipFilePoolTest.class})
 public class AllTests {
 
 }
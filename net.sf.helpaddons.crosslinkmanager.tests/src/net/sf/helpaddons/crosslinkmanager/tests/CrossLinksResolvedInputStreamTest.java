@@ -11,11 +11,26 @@
 package net.sf.helpaddons.crosslinkmanager.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import net.sf.helpaddons.crosslinkmanager.CrossLinkMetrics;
+import net.sf.helpaddons.crosslinkmanager.CrossLinkMetricsMBean;
+import net.sf.helpaddons.crosslinkmanager.CrossLinksResolvedChannel;
 import net.sf.helpaddons.crosslinkmanager.CrossLinksResolvedInputStream;
 import net.sf.helpaddons.crosslinkmanager.IHrefResolver;
 
@@ -26,6 +41,29 @@ public class CrossLinksResolvedInputStreamTest {
 
     private static String NOT_FOUND = "this_target_does_not_exist";
 
+    private static final IHrefResolver DUMMY_RESOLVER = new IHrefResolver() {
+
+        @Override
+        public String resolve(String href) {
+            if (href.equals(NOT_FOUND)) return null;
+
+            return "-" + href.toUpperCase() + "-";
+        }
+
+        @Override
+        public String getNotFoundHref(String targetId) {
+            return "my".equals(targetId)
+                    ? "myError404.htm"
+                    : "error404.htm";
+        }
+
+        @Override
+        public String getNotFoundClassName() {
+            return "error404";
+        }
+
+    };
+
 
     @Test
     public void testRead1() throws Exception {
@@ -46,6 +84,10 @@ public class CrossLinksResolvedInputStreamTest {
                                 "...<!--a href=\"target.htm\"-->text<!--a comment-->text<!--/a-->...");
         assertTransformedEquals("...<a href=\"-TARGET.HTM-\">text<!--a comment-->text</a>...<!--/a-->...",
                                 "...<!--a href=\"target.htm\"-->text<!--a comment-->text<!--/a-->...<!--/a-->...");
+        assertTransformedEquals("...<a href=\"-TARGET.HTM-\">text<!--/ab-->text</a>...",
+                                "...<!--a href=\"target.htm\"-->text<!--/ab-->text<!--/a-->...");
+        assertTransformedEquals("...<a href=\"-TARGET.HTM-\">text<!--/a--text</a>...",
+                                "...<!--a href=\"target.htm\"-->text<!--/a--text<!--/a-->...");
 
         assertTransformedEquals("...<a href=\"error404.htm\" class=\"error404\">...",
                                 "...<!--a href=\"" + NOT_FOUND + "\"-->...");
@@ -130,41 +172,113 @@ public class CrossLinksResolvedInputStreamTest {
                 "<!--a class='abc' href='my<" + NOT_FOUND + "'-->text<!--/a-->");
     }
 
+    @Test
+    public void testUtf16() throws Exception {
+        String html = "\uFEFF<p>\u65E5\u672C\u8A9E"
+                      + " <!--a href=\"\u76EE\u6A19.htm\"-->\u30EA\u30F3\u30AF<!--/a-->"
+                      + " <!--a href='my<" + NOT_FOUND + "'-->?<!--/a--></p>";
+        String expected = "\uFEFF<p>\u65E5\u672C\u8A9E"
+                          + " <a href=\"-\u76EE\u6A19.HTM-\">\u30EA\u30F3\u30AF</a>"
+                          + " <a href='myError404.htm' class='error404'>?</a></p>";
+        for (String encoding : new String[] {"UTF-16BE", "UTF-16LE"}) {
+
+            // with and without byte order mark
+            assertUtf16TransformedEquals(expected, html, encoding);
+            assertUtf16TransformedEquals(expected.substring(1),
+                                         html.substring(1),
+                                         encoding);
+        }
+
+        // UTF-8 with byte order mark: unchanged
+        byte[] utf8 = html.getBytes("UTF-8");
+        InputStream transformed =
+            new CrossLinksResolvedInputStream(new ByteArrayInputStream(utf8),
+                                              DUMMY_RESOLVER);
+        assertEquals(expected, new String(readFully(transformed, 4096), "UTF-8"));
+    }
+
     @Test
     public void testBufferOverflow() throws Exception {
+
+        // long start tag: buffer grows
         char[] chars9000 = new char[9000];
         Arrays.fill(chars9000, 'o');
-        String o1000 = String.valueOf(chars9000);
+        String o9000 = String.valueOf(chars9000);
+        assertTransformedEquals(
+              "...<a alt='lo'" + o9000 + "ng' href='-TARGET.HTM-'>"
+            + "text1</a>..."
+            + "<a href='-TARGET.HTM-'>text2</a>",
+              "...<!--a alt='lo'" + o9000 + "ng' href='target.htm'-->"
+            + "text1<!--/a-->..."
+            + "<!--a href='target.htm'-->text2<!--/a-->");
 
+        // start tag longer than the maximum buffer size (64 KB)
+        char[] chars70000 = new char[70000];
+        Arrays.fill(chars70000, 'o');
+        String o70000 = String.valueOf(chars70000);
         assertTransformedEquals(
-              "...<!--a alt='too lo'" + o1000 + "ng' href='target.htm'-->"
+              "...<!--a alt='too lo'" + o70000 + "ng' href='target.htm'-->"
             + "text1<!--/a-->..."
             + "<a href='-TARGET.HTM-'>text2</a>",
-              "...<!--a alt='too lo'" + o1000 + "ng' href='target.htm'-->"
+              "...<!--a alt='too lo'" + o70000 + "ng' href='target.htm'-->"
             + "text1<!--/a-->..."
             + "<!--a href='target.htm'-->text2<!--/a-->");
     }
 
-    private static void assertTransformedUnchanged(String beforeAndAfter) throws Exception {
-        assertTransformedEquals(beforeAndAfter, beforeAndAfter);
+    @Test
+    public void testMetrics() throws Exception {
+        CrossLinkMetricsMBean metrics = CrossLinkMetrics.getInstance();
+        long rewrites = metrics.getLinkRewrites();
+        long notResolved = metrics.getLinksNotResolved();
+        long[] histogram = metrics.getLinkRewriteLatencyHistogram();
+
+        readInBlocks("<!--a href='target.htm'-->1<!--/a-->"
+                     + "<!--a href='" + NOT_FOUND + "'-->2<!--/a-->",
+                     DUMMY_RESOLVER,
+                     4096);
+        assertEquals(rewrites + 2, metrics.getLinkRewrites());
+        assertEquals(notResolved + 1, metrics.getLinksNotResolved());
+        long recorded = 0;
+        long[] histogramAfter = metrics.getLinkRewriteLatencyHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            recorded += histogramAfter[i] - histogram[i];
+        }
+        assertEquals(2, recorded);
     }
 
-    private static void assertTransformedEquals(String expected,
-                                                String actual) throws Exception {
-        IHrefResolver dummyResolver = new IHrefResolver() {
+    @Test
+    public void testNoAllocationPerLink() throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Method getThreadAllocatedBytes;
+        try {
+            getThreadAllocatedBytes =
+                Class.forName("com.sun.management.ThreadMXBean")
+                     .getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ClassNotFoundException e) {
+            return; // allocation counting not supported by this VM
+        }
+
+        // page with 10000 links to 100 different targets
+        final int links = 10000;
+        final Map<String, String> resolved = new HashMap<String, String>();
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < links; i++) {
+            String target = "t" + (i % 100) + ".htm";
+            resolved.put(target, "../other/" + target);
+            page.append("<li><!--a href='").append(target)
+                .append("'-->text<!--/a--></li>\n");
+        }
+        final byte[] pageBytes = page.toString().getBytes("UTF-8");
+        IHrefResolver resolver = new IHrefResolver() {
 
             @Override
             public String resolve(String href) {
-                if (href.equals(NOT_FOUND)) return null;
-
-                return "-" + href.toUpperCase() + "-";
+                return resolved.get(href);
             }
 
             @Override
-            public String getNotFoundHref(String targetId) {
-                return "my".equals(targetId)
-                        ? "myError404.htm"
-                        : "error404.htm";
+            public String getNotFoundHref(String hrefPrefix) {
+                return "error404.htm";
             }
 
             @Override
@@ -174,12 +288,77 @@ public class CrossLinksResolvedInputStreamTest {
 
         };
 
+        byte[] block = new byte[8192];
+        long threadId = Thread.currentThread().getId();
+        long allocatedPerLink = Long.MAX_VALUE;
+        for (int run = 0; run < 10; run++) { // (warm-up)
+            InputStream in = new ByteArrayInputStream(pageBytes);
+            long before = (Long)getThreadAllocatedBytes.invoke(threadBean, threadId);
+            InputStream transformed = new CrossLinksResolvedInputStream(in, resolver);
+            while (transformed.read(block) >= 0) {
+                // read all
+            }
+            long after = (Long)getThreadAllocatedBytes.invoke(threadBean, threadId);
+            allocatedPerLink = Math.min(allocatedPerLink, (after - before) / links);
+        }
+
+        // nothing but the "href" string required by IHrefResolver#resolve()
+        assertTrue("allocated bytes per link: " + allocatedPerLink,
+                   allocatedPerLink < 80);
+    }
+
+    private static void assertTransformedUnchanged(String beforeAndAfter) throws Exception {
+        assertTransformedEquals(beforeAndAfter, beforeAndAfter);
+    }
+
+    private static void assertTransformedEquals(String expected,
+                                                String actual) throws Exception {
+        IHrefResolver dummyResolver = DUMMY_RESOLVER;
+
+        assertEquals(expected, readByteByByte(actual, dummyResolver));
+
+        // block-oriented reading (with different block sizes)
+        assertEquals(expected, readInBlocks(actual, dummyResolver, 1));
+        assertEquals(expected, readInBlocks(actual, dummyResolver, 3));
+        assertEquals(expected, readInBlocks(actual, dummyResolver, 4096));
+
+        // channel (heap and direct buffers)
+        assertEquals(expected, readFromChannel(actual, dummyResolver, 3, false));
+        assertEquals(expected, readFromChannel(actual, dummyResolver, 4096, false));
+        assertEquals(expected, readFromChannel(actual, dummyResolver, 1, true));
+        assertEquals(expected, readFromChannel(actual, dummyResolver, 4096, true));
+    }
+
+    private static void assertUtf16TransformedEquals(String expected,
+                                                     String actual,
+                                                     String encoding) throws Exception {
+        byte[] bytes = actual.getBytes(encoding);
+        for (int blockSize : new int[] {1, 3, 4096}) {
+            InputStream transformed =
+                new CrossLinksResolvedInputStream(new ByteArrayInputStream(bytes),
+                                                  DUMMY_RESOLVER);
+            assertEquals(expected,
+                         new String(readFully(transformed, blockSize), encoding));
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int blockSize) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] block = new byte[blockSize];
+        for (int read; (read = in.read(block)) >= 0;) {
+            out.write(block, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String readByteByByte(String actual,
+                                         IHrefResolver resolver) throws Exception {
         InputStream transformed =
             new CrossLinksResolvedInputStream(new StringInputStream(actual),
-                                              dummyResolver);
+                                              resolver);
 
         String out = null;
-        byte[] bytes = new byte[10000];
+        byte[] bytes = new byte[100000];
         for (int i = 0; i < bytes.length; i++) {
             int b = transformed.read();
             if (b < 0) {
@@ -188,10 +367,46 @@ public class CrossLinksResolvedInputStreamTest {
             }
             bytes[i] = (byte) b;
         }
-        assertEquals(expected, out);
+        return out;
+    }
 
+    private static String readInBlocks(String actual,
+                                       IHrefResolver resolver,
+                                       int blockSize) throws Exception {
+        InputStream transformed =
+            new CrossLinksResolvedInputStream(new StringInputStream(actual),
+                                              resolver);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] block = new byte[blockSize];
+        for (int read; (read = transformed.read(block)) >= 0;) {
+            out.write(block, 0, read);
+        }
+        return new String(out.toByteArray());
     }
 
+    private static String readFromChannel(String actual,
+                                          IHrefResolver resolver,
+                                          int bufferSize,
+                                          boolean direct) throws Exception {
+        ReadableByteChannel transformed =
+            new CrossLinksResolvedChannel(
+                    Channels.newChannel(new StringInputStream(actual)),
+                    resolver);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = direct
+                            ? ByteBuffer.allocateDirect(bufferSize)
+                            : ByteBuffer.allocate(bufferSize);
+        while (transformed.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer.get());
+            }
+            buffer.clear();
+        }
+        transformed.close();
+        assertFalse(transformed.isOpen());
+        return new String(out.toByteArray());
+    }
 
     private static class StringInputStream extends InputStream {
 
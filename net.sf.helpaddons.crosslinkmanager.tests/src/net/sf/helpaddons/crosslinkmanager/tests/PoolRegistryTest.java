@@ -11,14 +11,25 @@
 package net.sf.helpaddons.crosslinkmanager.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IContributor;
@@ -29,6 +40,8 @@ import org.junit.Test;
 
 import net.sf.helpaddons.crosslinkmanager.IHrefResolver;
 import net.sf.helpaddons.crosslinkmanager.IStaticHelpContent;
+import net.sf.helpaddons.crosslinkmanager.LinkGraph;
+import net.sf.helpaddons.crosslinkmanager.LinkGraph.Link;
 import net.sf.helpaddons.crosslinkmanager.PoolRegistry;
 
 public class PoolRegistryTest {
@@ -322,6 +335,8 @@ public class PoolRegistryTest {
 
     private IHrefResolver resolver;
 
+    private int checkExistsCalls;
+
     @Before
     public void setUp() {
         builder = new PoolExtensionBuilder();
@@ -340,11 +355,13 @@ public class PoolRegistryTest {
 
             @Override
             public boolean checkExists(String pluginId, String href, Locale locale) {
+                checkExistsCalls++;
                 return href.contains(pluginId);
             }
 
 			@Override
 			public boolean checkExists(String pluginId, String href, String locale) {
+				checkExistsCalls++;
 				return href.contains(pluginId);
 			}
         });
@@ -452,6 +469,229 @@ public class PoolRegistryTest {
     assertEquals("myError2.htm", resolver.getNotFoundHref("my2"));
     }
 
+    @Test
+    public void testTargetBundleMemoized() {
+        builder.bundle("doc.a").pool("z")
+               .bundle("doc.b").pool("z");
+
+        // first look-up: source bundle, then the other pool bundle
+        initResolverAndRegistry("doc.a", "topic.htm");
+        checkExistsCalls = 0;
+        assertResolvedEquals("../doc.b/in_doc.b", "in_doc.b");
+        assertResolvedEquals(null, "nowhere");
+        assertEquals(2 + 2, checkExistsCalls);
+
+        // other resolver, same targets: source bundle only
+        resolver = poolRegistry.createHrefResolver("doc.a", "other.htm", null);
+        checkExistsCalls = 0;
+        assertResolvedEquals("../doc.b/in_doc.b", "in_doc.b");
+        assertResolvedEquals(null, "nowhere");
+        assertEquals(1 + 1, checkExistsCalls);
+
+        // forgotten when the configuration changes
+        initResolverAndRegistry("doc.a", "topic.htm");
+        checkExistsCalls = 0;
+        assertResolvedEquals("../doc.b/in_doc.b", "in_doc.b");
+        assertEquals(2, checkExistsCalls);
+    }
+
+    @Test
+    public void testIncrementalChanges() {
+        Set<IExtension> ab = builder.bundle("doc.a").pool("z")
+                                    .bundle("doc.b").pool("z")
+                                    .build();
+        poolRegistry.changed(ab);
+        Set<IExtension> none = Collections.emptySet();
+
+        // add "doc.c" with preferred "doc.c" and error page
+        builder = new PoolExtensionBuilder();
+        Set<IExtension> c = builder.bundle("doc.c").pool("z").pool("y")
+                                   .bundle("doc.a").pool("y", "doc.c")
+                                                   .errorPage("a.htm")
+                                   .build();
+        poolRegistry.changed(c, none);
+        initResolver("doc.a", "topic.htm");
+        assertResolvedEquals("../doc.b/in_doc.b", "in_doc.b");
+        assertResolvedEquals("../doc.c/in_doc.b_doc.c", "in_doc.b_doc.c");
+        assertEquals("a.htm", resolver.getNotFoundHref(null));
+        initResolver("doc.b", "topic.htm");
+        assertResolvedEquals("../doc.c/in_doc.c", "in_doc.c");
+        assertTrue(poolRegistry.isPoolBundle("doc.c"));
+
+        // remove "doc.b"
+        poolRegistry.changed(none, Collections.singleton(extensionOf(ab, "doc.b")));
+        initResolver("doc.a", "topic.htm");
+        assertResolvedEquals(null, "in_doc.b");
+        assertResolvedEquals("../doc.c/in_doc.c", "in_doc.c");
+        assertFalse(poolRegistry.isPoolBundle("doc.b"));
+        assertEquals(new HashSet<String>(Arrays.asList("doc.a", "doc.c")),
+                     poolRegistry.getPoolBundles());
+
+        // remove preferred "doc.c" and error page
+        poolRegistry.changed(none, c);
+        initResolver("doc.a", "topic.htm");
+        assertResolvedEquals(null, "in_doc.c");
+        assertEquals("error404.htm", resolver.getNotFoundHref(null));
+        assertTrue(poolRegistry.isPoolBundle("doc.a"));
+        assertFalse(poolRegistry.isPoolBundle("doc.c"));
+
+        // same as full rebuild
+        Set<IExtension> all = new LinkedHashSet<IExtension>(ab);
+        all.addAll(c);
+        poolRegistry.changed(all);
+        initResolver("doc.a", "topic.htm");
+        String fullRebuild = resolver.resolve("in_doc.b_doc.c");
+        poolRegistry.changed(Collections.<IExtension>emptySet());
+        poolRegistry.changed(ab, none);
+        poolRegistry.changed(c, none);
+        initResolver("doc.a", "topic.htm");
+        assertResolvedEquals(fullRebuild, "in_doc.b_doc.c");
+        assertResolvedEquals("../doc.c/in_doc.b_doc.c", "in_doc.b_doc.c");
+    }
+
+    @Test
+    public void testLinkGraph() throws Exception {
+        poolRegistry.changed(builder.bundle("doc.a").pool("z")
+                                    .bundle("doc.b").pool("z")
+                                    .build());
+        final Map<String, String> html = new HashMap<String, String>();
+        html.put("doc.a/topic.htm",
+                 "<p><!--a href=\"in_doc.b.htm\"-->b<!--/a-->"
+                 + " <!--a href=\"x<missing.htm\"-->?<!--/a-->"
+                 + " <!--a href=\"dir/in_doc.a.htm#anchor\"-->a<!--/a--></p>");
+        html.put("doc.b/sub/page.htm",
+                 "<!--a href=\"../in_doc.a.htm\"-->a<!--/a-->");
+        IStaticHelpContent pages = new IStaticHelpContent() {
+
+            @Override
+            public InputStream getInputStream(String plugin, String href, Locale locale) {
+                String page = html.get(plugin + '/' + href);
+                return page == null ? null : new ByteArrayInputStream(page.getBytes());
+            }
+
+            @Override
+            public InputStream getInputStream(String plugin, String href, String locale) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean checkExists(String pluginId, String href, Locale locale) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean checkExists(String pluginId, String href, String locale) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Map<String, List<String>> pagesOfBundles = new HashMap<String, List<String>>();
+        pagesOfBundles.put("doc.a", Arrays.asList("topic.htm", "not_existing.htm"));
+        pagesOfBundles.put("doc.b", Arrays.asList("sub/page.htm"));
+
+        LinkGraph graph =
+            LinkGraph.compute(poolRegistry, pages, pagesOfBundles, null, 2);
+        assertEquals(3, graph.getPageCount());
+        assertEquals(4, graph.getLinks().size());
+
+        List<Link> fromTopic = graph.getLinksFrom("doc.a", "topic.htm");
+        assertEquals(3, fromTopic.size());
+        assertEquals("doc.b", fromTopic.get(0).getTargetBundle());
+        assertEquals("in_doc.b.htm", fromTopic.get(0).getTargetPage());
+        assertFalse(fromTopic.get(1).isResolved());
+        assertEquals("missing.htm", fromTopic.get(1).getHref());
+        assertEquals("x", fromTopic.get(1).getHrefPrefix());
+        assertEquals("doc.a", fromTopic.get(2).getTargetBundle());
+        assertEquals("dir/in_doc.a.htm", fromTopic.get(2).getTargetPage());
+
+        assertEquals(Arrays.asList(fromTopic.get(1)), graph.getUnresolvedLinks());
+        List<Link> toA = graph.getLinksTo("doc.a", "in_doc.a.htm");
+        assertEquals(1, toA.size());
+        assertEquals("doc.b", toA.get(0).getSourceBundle());
+        assertEquals("sub/page.htm", toA.get(0).getSourcePage());
+        assertEquals(Arrays.asList("doc.a/dir/in_doc.a.htm", "doc.a/in_doc.a.htm"),
+                     graph.getMostLinkedPages(2));
+
+        StringWriter report = new StringWriter();
+        graph.writeReport(report);
+        assertTrue(report.toString().startsWith(
+                "# 3 pages, 4 links, 1 unresolved\n"
+                + "doc.a/topic.htm\tmissing.htm\tunresolved:x\n"));
+    }
+
+    @Test
+    public void testConcurrentChanges() throws Exception {
+
+        // configuration A: "in_doc.b" found in "doc.b", error page "a.htm"
+        final Set<IExtension> a = builder.bundle("doc.a").pool("z").errorPage("a.htm")
+                                         .bundle("doc.b").pool("z")
+                                         .build();
+
+        // configuration B: "in_doc.b" not found, error page "b.htm"
+        builder = new PoolExtensionBuilder();
+        final Set<IExtension> b = builder.bundle("doc.a").pool("z").errorPage("b.htm")
+                                         .bundle("doc.c").pool("z")
+                                         .build();
+
+        poolRegistry.changed(a);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            IHrefResolver reader =
+                                poolRegistry.createHrefResolver("doc.a",
+                                                                "topic.htm",
+                                                                null);
+                            String resolved = reader.resolve("in_doc.b");
+                            if ("a.htm".equals(reader.getNotFoundHref(null))) {
+                                assertEquals("../doc.b/in_doc.b", resolved);
+                            } else {
+                                assertEquals("b.htm", reader.getNotFoundHref(null));
+                                assertNull(resolved);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+
+            };
+            readers[i].start();
+        }
+        try {
+            for (int i = 0; i < 50000 && failure.get() == null; i++) {
+                poolRegistry.changed(i % 2 == 0 ? b : a);
+            }
+        } finally {
+            stop.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+
+    private static IExtension extensionOf(Set<IExtension> extensions,
+                                          String bundle) {
+        for (IExtension extension : extensions) {
+            if (extension.getNamespaceIdentifier().equals(bundle))
+                return extension;
+        }
+        throw new IllegalArgumentException(bundle);
+    }
+
+    private void initResolver(String sourceBundle, String sourceHref) {
+        resolver = poolRegistry.createHrefResolver(sourceBundle,
+                                                   sourceHref,
+                                                   null);
+    }
+
     private void initResolverAndRegistry(String sourceBundle,
                                          String sourceHref) {
         poolRegistry.changed(builder.build());
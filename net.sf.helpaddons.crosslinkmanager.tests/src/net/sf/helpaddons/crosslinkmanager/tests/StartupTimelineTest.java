@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.helpaddons.crosslinkmanager.StartupTimeline;
+
+import org.junit.Test;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void testMark() {
+        StartupTimeline.mark("test phase 1");
+        StartupTimeline.mark("test phase 2");
+        StartupTimeline.mark("test phase 1");
+
+        String summary = StartupTimeline.getSummary();
+        int phase1 = summary.indexOf("test phase 1");
+        int phase2 = summary.indexOf("test phase 2");
+        assertTrue(phase1 > 0);
+        assertTrue(phase2 > phase1);
+        assertEquals(phase1, summary.lastIndexOf("test phase 1"));
+    }
+
+}
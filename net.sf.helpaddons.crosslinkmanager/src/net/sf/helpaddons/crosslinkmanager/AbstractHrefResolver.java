@@ -16,16 +16,47 @@ import org.eclipse.core.runtime.Path;
 public abstract class AbstractHrefResolver implements IHrefResolver {
 
     private static final String ABSOLUTE_POOL_PATH_PREFIX = "/pool/";
-    /** The source directory of the HTML file which contains the links to
-     *  resolve. */
-    private final IPath sourceDir;
+
+    /** The path of the HTML file which contains the links to resolve. */
+    private final String sourceHref;
+
+    /**
+     * The source directory of the HTML file which contains the links to
+     * resolve (e.g. {@code "dir/sub"} or {@code ""}) or {@code null} if the
+     * source path is not simple (see {@link #isSimple(String, boolean)}) and
+     * therefore has to be handled by {@link IPath}.
+     */
+    private final String simpleSourceDir;
+
+    /** The number of segments of {@link #simpleSourceDir}. */
+    private final int simpleSourceDirSegmentCount;
+
+    /** The source directory as {@link IPath} (created on first use). */
+    private IPath sourceDir;
 
     /**
      * @param sourceHref the path of the HTML file which contains the links to
      *                   resolve
      */
     public AbstractHrefResolver(String sourceHref) {
-        sourceDir = new Path(sourceHref).removeLastSegments(1);
+        this.sourceHref = sourceHref;
+        if (isSimple(sourceHref, false)) {
+            int lastSlash = sourceHref.lastIndexOf('/');
+            simpleSourceDir = lastSlash < 0
+                              ? ""
+                              : sourceHref.substring(0, lastSlash);
+            simpleSourceDirSegmentCount = countSlashes(sourceHref);
+        } else {
+            simpleSourceDir = null;
+            simpleSourceDirSegmentCount = -1;
+        }
+    }
+
+    private IPath getSourceDir() {
+        if (sourceDir == null) {
+            sourceDir = new Path(sourceHref).removeLastSegments(1);
+        }
+        return sourceDir;
     }
 
     final public String resolve(String targetHref) {
@@ -37,7 +68,7 @@ public abstract class AbstractHrefResolver implements IHrefResolver {
             // (absolute) pool link ("/pool/...")?
             if (targetHrefNormalized.startsWith(ABSOLUTE_POOL_PATH_PREFIX)) {
 
-                char[] pathUp = new char[sourceDir.segmentCount() * 3];
+                char[] pathUp = new char[getSourceDirSegmentCount() * 3];
                 for (int i = 0; i < pathUp.length; i += 3) {
                     pathUp[i] = '.';
                     pathUp[i+1] = '.';
@@ -47,10 +78,14 @@ public abstract class AbstractHrefResolver implements IHrefResolver {
                     targetHref.substring(ABSOLUTE_POOL_PATH_PREFIX.length());
 
                 if (computeExistsInSourceBundle(absolute)) {
+                    CrossLinkMetrics.INSTANCE.recordLinkInSourceBundle();
                     return String.valueOf(pathUp) + absolute;
                 }
 
                 String targetBundle = computeTargetBundle(absolute);
+                if (targetBundle != null) {
+                    CrossLinkMetrics.INSTANCE.recordLinkInPoolBundle();
+                }
                 return targetBundle == null
                        ? null
                        :   String.valueOf(pathUp)
@@ -66,6 +101,12 @@ public abstract class AbstractHrefResolver implements IHrefResolver {
                    : null;
         }
 
+        // common case ("dir/page.htm", "../other/page.htm") without IPath
+        if (simpleSourceDir != null && isSimple(targetHref, true)) {
+            return resolveSimple(targetHref);
+        }
+
+        IPath sourceDir = getSourceDir();
         IPath absolutePath = sourceDir.append(targetHref);
 
         if ("..".equals(absolutePath.segment(0))) {
@@ -73,19 +114,128 @@ public abstract class AbstractHrefResolver implements IHrefResolver {
         }
 
         String absolute = absolutePath.toString();
-        if (computeExistsInSourceBundle(absolute)) return targetHref;
+        if (computeExistsInSourceBundle(absolute)) {
+            CrossLinkMetrics.INSTANCE.recordLinkInSourceBundle();
+            return targetHref;
+        }
 
         String targetBundle = computeTargetBundle(absolute);
         if (targetBundle == null) return null;
+        CrossLinkMetrics.INSTANCE.recordLinkInPoolBundle();
 
         IPath target = new Path(targetBundle).append(absolutePath);
         IPath source = new Path("_").append(sourceDir);
         return target.makeRelativeTo(source).toString();
     }
 
+    /**
+     * Same as the {@link IPath} based part of {@link #resolve(String)} but
+     * for a simple source directory and a simple target (see
+     * {@link #isSimple(String, boolean)}) only.
+     */
+    private String resolveSimple(String targetHref) {
+
+        // leading ".." segments: go up in the source directory
+        int targetStart = 0;
+        int dirEnd = simpleSourceDir.length();
+        int dirSegmentCount = simpleSourceDirSegmentCount;
+        while (targetHref.startsWith("../", targetStart)) {
+            if (dirSegmentCount == 0) return targetHref; // outside of bundle
+            dirSegmentCount--;
+            dirEnd = dirSegmentCount == 0
+                     ? 0
+                     : simpleSourceDir.lastIndexOf('/', dirEnd - 1);
+            targetStart += 3;
+        }
+        String absolute = dirEnd == 0
+                          ? targetHref.substring(targetStart)
+                          :   simpleSourceDir.substring(0, dirEnd)
+                            + '/'
+                            + targetHref.substring(targetStart);
+        if (computeExistsInSourceBundle(absolute)) {
+            CrossLinkMetrics.INSTANCE.recordLinkInSourceBundle();
+            return targetHref;
+        }
+
+        String targetBundle = computeTargetBundle(absolute);
+        if (targetBundle == null) return null;
+        CrossLinkMetrics.INSTANCE.recordLinkInPoolBundle();
+        if (   !isSimple(targetBundle, false)
+            || targetBundle.indexOf('/') >= 0
+            || targetBundle.equals("_")) {
+            IPath target = new Path(targetBundle).append(absolute);
+            IPath source = new Path("_").append(getSourceDir());
+            return target.makeRelativeTo(source).toString();
+        }
+
+        // "../" for "_" and each source directory segment
+        StringBuilder result =
+            new StringBuilder(  (simpleSourceDirSegmentCount + 1) * 3
+                              + targetBundle.length()
+                              + 1
+                              + absolute.length());
+        for (int i = 0; i <= simpleSourceDirSegmentCount; i++) {
+            result.append("../");
+        }
+        return result.append(targetBundle)
+                     .append('/')
+                     .append(absolute)
+                     .toString();
+    }
+
+    private int getSourceDirSegmentCount() {
+        return simpleSourceDir == null
+               ? getSourceDir().segmentCount()
+               : simpleSourceDirSegmentCount;
+    }
+
+    /**
+     * @param href the path to check
+     * @param allowLeadingParents whether leading ".." segments are allowed
+     * @return {@code true} if and only if the specified path consists of one
+     *         or more non-empty segments separated by '/' without "."
+     *         segments, without ".." segments (except leading ones if
+     *         allowed), without '\\' and without ':' (device), so that
+     *         {@link Path} would neither change nor normalize it
+     */
+    private static boolean isSimple(String href, boolean allowLeadingParents) {
+        int length = href.length();
+        if (length == 0) return false;
+        boolean leading = allowLeadingParents;
+        int segmentStart = 0;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? href.charAt(i) : '/';
+            if (c == '\\' || c == ':') return false;
+            if (c != '/') continue;
+            int segmentLength = i - segmentStart;
+            if (segmentLength == 0) return false;
+            if (   href.charAt(segmentStart) == '.'
+                && (   segmentLength == 1
+                    || (   segmentLength == 2
+                        && href.charAt(segmentStart + 1) == '.'))) {
+
+                // "." or not leading ".." or ".." as last segment
+                if (segmentLength == 1 || !leading || i == length) return false;
+
+            } else {
+                leading = false;
+            }
+            segmentStart = i + 1;
+        }
+        return true;
+    }
+
+    private static int countSlashes(String href) {
+        int result = 0;
+        for (int i = href.indexOf('/'); i >= 0; i = href.indexOf('/', i + 1)) {
+            result++;
+        }
+        return result;
+    }
+
     final public String getNotFoundHref(String hrefPrefix) {
         IPath absolute = new Path(getNotFoundHtmlFile(hrefPrefix));
-        return absolute.makeRelativeTo(sourceDir).toString();
+        return absolute.makeRelativeTo(getSourceDir()).toString();
     }
 
     /**
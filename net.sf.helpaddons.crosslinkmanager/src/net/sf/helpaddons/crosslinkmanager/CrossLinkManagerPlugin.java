@@ -10,19 +10,41 @@
  *******************************************************************************/
 package net.sf.helpaddons.crosslinkmanager;
 
-import java.util.HashSet;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.eclipse.core.runtime.IExtension;
 import org.eclipse.core.runtime.IExtensionDelta;
 import org.eclipse.core.runtime.IExtensionPoint;
 import org.eclipse.core.runtime.IExtensionRegistry;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IRegistryChangeEvent;
 import org.eclipse.core.runtime.IRegistryChangeListener;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 
 public class CrossLinkManagerPlugin implements BundleActivator, IRegistryChangeListener {
 
@@ -37,15 +59,148 @@ public class CrossLinkManagerPlugin implements BundleActivator, IRegistryChangeL
     private static CrossLinkManagerPlugin plugin;
 
     private final Set<IExtension> contentPoolsExtensions =
-        new HashSet<IExtension>();
+        new LinkedHashSet<IExtension>();
 
     private final PoolRegistry poolRegistry = new PoolRegistry();
 
+    /**
+     * The static help content to use (see {@link StaticHelpContent#INSTANCE}).
+     */
+    private final StaticHelpContent staticHelpContent =
+        StaticHelpContent.INSTANCE;
+
+    /**
+     * The cache of HTML pages with resolved cross links or {@code null} if
+     * disabled (in development mode or if the system property
+     * {@code net.sf.helpaddons.crosslinkmanager.pageCacheSize}, the maximum
+     * size in bytes, is set to zero); if the system property
+     * {@code net.sf.helpaddons.crosslinkmanager.pageCacheGzip} is set to
+     * {@code true}, the pages are stored gzip-compressed.
+     */
+    private final RenderedPageCache pageCache = createRenderedPageCache();
+
+    /**
+     * The disk-backed second tier of the {@link #pageCache} or {@code null} if
+     * disabled (if the page cache is disabled or if the system property
+     * {@code net.sf.helpaddons.crosslinkmanager.diskPageCache}, the
+     * directory of the cache, is not set); the system property
+     * {@code net.sf.helpaddons.crosslinkmanager.diskPageCacheSize} is the
+     * maximum size in bytes.
+     */
+    private final DiskPageCache diskPageCache =
+        pageCache == null ? null : createDiskPageCache();
+
+    /**
+     * The hash of the pool configuration for the disk page cache and the
+     * {@link RenderedPageCache#getGeneration() generation} of the page cache
+     * for which it has been computed.
+     */
+    private volatile ConfigurationHash configurationHash;
+
+    private static class ConfigurationHash {
+
+        private final long generation;
+        private final String hash;
+
+        private ConfigurationHash(long generation, String hash) {
+            this.generation = generation;
+            this.hash = hash;
+        }
+
+    }
+
+    /**
+     * The states of the bundles for the disk page cache (see
+     * {@link DiskPageCache#getBundleState(Bundle)}) and the
+     * {@link RenderedPageCache#getGeneration() generation} of the page cache
+     * for which they have been computed.
+     */
+    private volatile BundleStates bundleStates;
+
+    private static class BundleStates {
+
+        private final long generation;
+
+        /** Bundle symbolic name -> state. */
+        private final Map<String, String> states =
+            new ConcurrentHashMap<String, String>();
+
+        private BundleStates(long generation) {
+            this.generation = generation;
+        }
+
+    }
+
+    /** To forget cached information about updated or uninstalled bundles. */
+    private final BundleListener bundleListener = new BundleListener() {
+        public void bundleChanged(BundleEvent event) {
+            switch (event.getType()) {
+                case BundleEvent.RESOLVED:
+                case BundleEvent.UNRESOLVED:
+                case BundleEvent.UPDATED:
+                case BundleEvent.UNINSTALLED:
+                    Bundle bundle = event.getBundle();
+                    if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
+                        flush(bundle);
+                    } else {
+
+                        // fragment: host unknown if not resolved
+                        flush(null);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
+    /**
+     * @param bundle the bundle to forget or {@code null} to forget all bundles
+     */
+    private void flush(Bundle bundle) {
+        if (pageCache != null) {
+            pageCache.invalidate();
+        }
+        poolRegistry.flushTargetBundles();
+        flush(staticHelpContent, bundle);
+    }
+
+    private static RenderedPageCache createRenderedPageCache() {
+        if (Platform.inDevelopmentMode()) return null;
+        long maxSize =
+            Long.getLong("net.sf.helpaddons.crosslinkmanager.pageCacheSize", //$NON-NLS-1$
+                         8 * 1024 * 1024).longValue();
+        if (maxSize <= 0) return null;
+        return new RenderedPageCache(
+                maxSize,
+                Boolean.getBoolean("net.sf.helpaddons.crosslinkmanager.pageCacheGzip")); //$NON-NLS-1$
+    }
+
+    private static DiskPageCache createDiskPageCache() {
+        String dir =
+            System.getProperty("net.sf.helpaddons.crosslinkmanager.diskPageCache"); //$NON-NLS-1$
+        if (dir == null || dir.length() == 0) return null;
+        long maxSize =
+            Long.getLong("net.sf.helpaddons.crosslinkmanager.diskPageCacheSize", //$NON-NLS-1$
+                         256 * 1024 * 1024).longValue();
+        if (maxSize <= 0) return null;
+        return new DiskPageCache(new File(dir), maxSize);
+    }
+
+    private static void flush(StaticHelpContent content, Bundle bundle) {
+        if (bundle == null) {
+            content.flush();
+        } else {
+            content.flush(bundle);
+        }
+    }
+
     public void start(BundleContext bundleContext) throws Exception {
         if (plugin != null) {
             throw new RuntimeException("Bundle must be singleton"); //$NON-NLS-1$
         }
         plugin = this;
+        StartupTimeline.mark("cross link manager starting"); //$NON-NLS-1$
         IExtensionRegistry reg = Platform.getExtensionRegistry();
         IExtensionPoint pt =
             reg.getExtensionPoint(ID,
@@ -55,27 +210,76 @@ public class CrossLinkManagerPlugin implements BundleActivator, IRegistryChangeL
             contentPoolsExtensions.add(ext);
         }
         reg.addRegistryChangeListener(this);
+        poolRegistry.setHelpContentDelegate(staticHelpContent);
+
+        // like the resource index and the page cache: not in development mode
+        poolRegistry.setMemoizeTargetBundles(!Platform.inDevelopmentMode());
         poolRegistry.changed(contentPoolsExtensions);
+        bundleContext.addBundleListener(bundleListener);
+        registerMetrics(true);
+        StartupTimeline.mark("cross link manager started"); //$NON-NLS-1$
     }
 
     public void stop(BundleContext bundleContext) throws Exception {
+        registerMetrics(false);
+        bundleContext.removeBundleListener(bundleListener);
+        saveIndexes();
+        flush(null);
         plugin = null;
         contentPoolsExtensions.clear();
         IExtensionRegistry reg = Platform.getExtensionRegistry();
         reg.removeRegistryChangeListener(this);
     }
 
+    private void saveIndexes() {
+        try {
+            staticHelpContent.saveIndexes();
+        } catch (IOException e) {
+            // not essential: the indexes are rebuilt on next start
+            log("Failed to save the resource indexes", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Registers or unregisters the {@link CrossLinkMetrics} at the platform
+     * MBean server.
+     */
+    private static void registerMetrics(boolean register) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(CrossLinkMetrics.OBJECT_NAME);
+            if (register) {
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(CrossLinkMetrics.INSTANCE, name);
+                }
+            } else if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log("Failed to register metrics", e); //$NON-NLS-1$
+        } catch (SecurityException e) {
+            log("Failed to register metrics", e); //$NON-NLS-1$
+        }
+    }
+
     public void registryChanged(IRegistryChangeEvent event) {
         IExtensionDelta[] deltas =
             event.getExtensionDeltas(ID, CONTENT_POOLS_EXTENSION_POINT_ID);
+        List<IExtension> added = new ArrayList<IExtension>();
+        List<IExtension> removed = new ArrayList<IExtension>();
         for (int i = 0; i < deltas.length; i++) {
             if (deltas[i].getKind() == IExtensionDelta.ADDED) {
                 contentPoolsExtensions.add(deltas[i].getExtension());
+                added.add(deltas[i].getExtension());
             } else {
                 contentPoolsExtensions.remove(deltas[i].getExtension());
+                removed.add(deltas[i].getExtension());
             }
         }
-        poolRegistry.changed(contentPoolsExtensions);
+        poolRegistry.changed(added, removed);
+        if (pageCache != null) {
+            pageCache.invalidate();
+        }
     }
 
     /**
@@ -97,9 +301,256 @@ public class CrossLinkManagerPlugin implements BundleActivator, IRegistryChangeL
                                                       locale);
     }
 
+    /**
+     * @return the {@link IStaticHelpContent} to use to open help content
+     *         resources
+     */
+    public static IStaticHelpContent getStaticHelpContent() {
+        if (plugin == null) return IStaticHelpContent.DEFAULT; // may happen on shutdown
+        return plugin.staticHelpContent;
+    }
+
+    /**
+     * @return the cache of HTML pages with resolved cross links or
+     *         {@code null} if the cache is disabled
+     */
+    static RenderedPageCache getRenderedPageCache() {
+        if (plugin == null) return null; // may happen on shutdown
+        return plugin.pageCache;
+    }
+
+    /**
+     * @return the disk-backed second tier of the cache of HTML pages with
+     *         resolved cross links or {@code null} if disabled
+     */
+    static DiskPageCache getDiskPageCache() {
+        if (plugin == null) return null; // may happen on shutdown
+        return plugin.diskPageCache;
+    }
+
+    /**
+     * @param pluginID the bundle symbolic name of the page
+     * @param hrefWithoutQuery the path of the page inside the bundle
+     * @param locale the locale of the page (might be {@code null})
+     * @return the key of the page in the {@link #getDiskPageCache() disk page
+     *         cache} or {@code null} if the page cannot be cached on disk
+     */
+    static String createDiskPageCacheKey(String pluginID,
+                                         String hrefWithoutQuery,
+                                         Locale locale) {
+        CrossLinkManagerPlugin current = plugin;
+        if (current == null || current.pageCache == null) return null;
+        Bundle bundle = Platform.getBundle(pluginID);
+        if (bundle == null) return null;
+        return DiskPageCache.createKey(pluginID,
+                                       current.getBundleState(bundle),
+                                       hrefWithoutQuery,
+                                       locale == null ? null : locale.toString(),
+                                       current.getConfigurationHash());
+    }
+
+    /**
+     * @return the state of the specified bundle (computed once per generation
+     *         of the page cache, which changes whenever pools or bundles
+     *         change, because changes of bundles installed as directories are
+     *         detected by walking through the directories)
+     */
+    private String getBundleState(Bundle bundle) {
+        long generation = pageCache.getGeneration();
+        BundleStates cached = bundleStates;
+        if (cached == null || cached.generation != generation) {
+            cached = new BundleStates(generation);
+            bundleStates = cached;
+        }
+        String state = cached.states.get(bundle.getSymbolicName());
+        if (state == null) {
+            state = DiskPageCache.getBundleState(bundle);
+            cached.states.put(bundle.getSymbolicName(), state);
+        }
+        return state;
+    }
+
+    /**
+     * @return the hash of the pool configuration and of the states (version,
+     *         modification time, etc.) of all pool bundles (computed once per
+     *         generation of the page cache, which changes whenever pools or
+     *         bundles change)
+     */
+    private String getConfigurationHash() {
+        long generation = pageCache.getGeneration();
+        ConfigurationHash cached = configurationHash;
+        if (cached != null && cached.generation == generation) {
+            return cached.hash;
+        }
+        StringBuilder configuration =
+            new StringBuilder(poolRegistry.getConfigurationDescription());
+        for (String poolBundle
+                 : new TreeSet<String>(poolRegistry.getPoolBundles())) {
+            Bundle bundle = Platform.getBundle(poolBundle);
+            configuration.append('\n').append(poolBundle).append(' ');
+            configuration.append(bundle == null
+                                 ? "-" //$NON-NLS-1$
+                                 : getBundleState(bundle));
+        }
+        String hash = DiskPageCache.sha1Hex(configuration.toString());
+        configurationHash = new ConfigurationHash(generation, hash);
+        return hash;
+    }
+
+    /**
+     * Computes the {@link LinkGraph} of all HTML files of all pool bundles.
+     *
+     * @param locale the locale to use or {@code null} to use the default
+     *               locale
+     * @param threads the number of bundles to process concurrently
+     * @return the link graph
+     * @throws InterruptedException if interrupted while computing
+     */
+    public static LinkGraph computeLinkGraph(Locale locale, int threads)
+            throws InterruptedException {
+        CrossLinkManagerPlugin current = plugin;
+        Map<String, Set<String>> pages = new TreeMap<String, Set<String>>();
+        if (current == null) { // may happen on shutdown
+            return LinkGraph.compute(new PoolRegistry(),
+                                     IStaticHelpContent.DEFAULT,
+                                     pages,
+                                     locale,
+                                     threads);
+        }
+        String localeName = locale == null ? null : locale.toString();
+        for (String bundle : current.poolRegistry.getPoolBundles()) {
+            pages.put(bundle,
+                      current.staticHelpContent.listHtmlFiles(bundle,
+                                                              localeName));
+        }
+        return LinkGraph.compute(current.poolRegistry,
+                                 current.staticHelpContent,
+                                 pages,
+                                 locale,
+                                 threads);
+    }
+
+    /**
+     * Warms up the caches so that the first requests of pages are not slower
+     * than later ones: computes the {@link LinkGraph} of all pool bundles,
+     * which locates the "doc.zip" files, indexes the resources (the indexes
+     * are persisted for the next start) and checks the existence of all link
+     * targets, and then renders the specified pages and the most linked
+     * pages into the cache of rendered pages (if enabled). Warming up is
+     * neither recorded in the {@link CrossLinkMetrics} nor in the
+     * {@link StartupTimeline}.
+     *
+     * @param locale the locale to use or {@code null} to use the default
+     *               locale
+     * @param pages the pages to render first, e.g. the start page, as help
+     *              references {@code "/bundle/path"} (might be empty)
+     * @param mostLinkedPages the maximum number of most linked pages to render
+     * @param monitor to report progress and to cancel rendering
+     * @return the number of rendered pages
+     * @throws InterruptedException if interrupted while computing the link
+     *                              graph
+     */
+    public static int warmUp(Locale locale,
+                             String[] pages,
+                             int mostLinkedPages,
+                             IProgressMonitor monitor)
+            throws InterruptedException {
+        monitor.beginTask("", pages.length + mostLinkedPages + 1); //$NON-NLS-1$
+        CrossLinkMetrics.setSuspended(true);
+        try {
+            LinkGraph graph = computeLinkGraph(locale, 1);
+            CrossLinkManagerPlugin current = plugin;
+            if (current != null) {
+                current.saveIndexes();
+            }
+            monitor.worked(1);
+            RenderedPageCache cache = getRenderedPageCache();
+            if (cache == null) return 0;
+
+            Set<String> toRender = new LinkedHashSet<String>();
+            for (String page : pages) {
+                toRender.add(page.startsWith("/") ? page.substring(1) : page); //$NON-NLS-1$
+            }
+            toRender.addAll(graph.getMostLinkedPages(mostLinkedPages));
+            IStaticHelpContent content = getStaticHelpContent();
+            int rendered = 0;
+            for (String page : toRender) {
+                if (monitor.isCanceled()) break;
+                int slash = page.indexOf('/');
+                if (slash > 0 && render(cache,
+                                        content,
+                                        page.substring(0, slash),
+                                        page.substring(slash + 1),
+                                        locale)) {
+                    rendered++;
+                }
+                monitor.worked(1);
+            }
+            return rendered;
+        } finally {
+            CrossLinkMetrics.setSuspended(false);
+            monitor.done();
+        }
+    }
+
+    private static boolean render(RenderedPageCache cache,
+                                  IStaticHelpContent content,
+                                  String bundle,
+                                  String href,
+                                  Locale locale) {
+        if (!HelpContentWithCrossLinks.hasHtmlFileExtension(href)) return false;
+
+        // (cached) pages are rendered completely when opened; not requested
+        // via the help content producer to not mark the startup timeline
+        InputStream in = HelpContentWithCrossLinks.getHtmlInputStream(cache,
+                                                                      content,
+                                                                      bundle,
+                                                                      href,
+                                                                      locale);
+        if (in == null) return false;
+        try {
+            try {
+                return in.read() >= 0;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public static boolean isPoolBundle(String bundleSymbolicName) {
         if (plugin == null) return false; // may happen on shutdown
         return plugin.poolRegistry.isPoolBundle(bundleSymbolicName);
     }
 
+    /**
+     * @return the symbolic names of all bundles which are members of at least
+     *         one pool
+     */
+    public static Set<String> getPoolBundles() {
+        if (plugin == null) return Collections.emptySet(); // may happen on shutdown
+        return plugin.poolRegistry.getPoolBundles();
+    }
+
+    /**
+     * Logs the given message and exception as error of this plug-in (or
+     * prints it to the standard error stream if the platform is not running).
+     *
+     * @param message the message to log
+     * @param throwable the exception to log
+     */
+    static void log(String message, Throwable throwable) {
+        Bundle bundle = Platform.isRunning() ? Platform.getBundle(ID) : null;
+        if (bundle == null) {
+            System.err.println(message);
+            throwable.printStackTrace();
+            return;
+        }
+        Platform.getLog(bundle).log(new Status(IStatus.ERROR,
+                                               ID,
+                                               message,
+                                               throwable));
+    }
+
 }
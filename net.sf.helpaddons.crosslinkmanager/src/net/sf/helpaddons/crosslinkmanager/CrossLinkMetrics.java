@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters and latency histograms of the cross-link resolution, registered
+ * by {@link CrossLinkManagerPlugin} as MBean named {@value #OBJECT_NAME}.
+ *
+ * Recording does not block: counters and histograms are striped (see
+ * {@link StripedCounter}) so that concurrent requests do not contend.
+ * Computing a {@link LinkGraph} is recorded like serving the pages, except
+ * while warming up the caches (see {@link #setSuspended(boolean)}).
+ */
+public class CrossLinkMetrics implements CrossLinkMetricsMBean {
+
+    /** The name under which the metrics are registered. */
+    public static final String OBJECT_NAME =
+        "net.sf.helpaddons.crosslinkmanager:type=CrossLinkMetrics"; //$NON-NLS-1$
+
+    static final CrossLinkMetrics INSTANCE = new CrossLinkMetrics();
+
+    /**
+     * Set on threads (and inherited by threads started by them) on which
+     * nothing is recorded, e.g. while warming up the caches.
+     */
+    private static final ThreadLocal<Boolean> SUSPENDED =
+        new InheritableThreadLocal<Boolean>();
+
+    /** The number of threads which have suspended recording. */
+    private static final AtomicInteger suspensions = new AtomicInteger();
+
+    private final StripedCounter pagesRendered = new StripedCounter();
+    private final StripedCounter pageBytes = new StripedCounter();
+    private final LatencyHistogram pageLatency = new LatencyHistogram();
+
+    private final StripedCounter linksNotResolved = new StripedCounter();
+    private final StripedCounter linksInSourceBundle = new StripedCounter();
+    private final StripedCounter linksInPoolBundle = new StripedCounter();
+    private final LatencyHistogram linkRewriteLatency = new LatencyHistogram();
+
+    private final StripedCounter lookupZipHits = new StripedCounter();
+    private final StripedCounter lookupFileHits = new StripedCounter();
+    private final StripedCounter lookupMisses = new StripedCounter();
+    private final StripedCounter existsCheckHits = new StripedCounter();
+    private final StripedCounter existsCheckMisses = new StripedCounter();
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
+
+    private final LatencyHistogram poolRegistryRebuildLatency =
+        new LatencyHistogram();
+
+    private CrossLinkMetrics() {
+        // singleton
+    }
+
+    /**
+     * @return the metrics (to read them without JMX)
+     */
+    public static CrossLinkMetricsMBean getInstance() {
+        return INSTANCE;
+    }
+
+    // --- recording
+
+    /**
+     * Suspends or resumes recording on the current thread and on the threads
+     * started by the current thread while suspended, e.g. to warm up the
+     * caches without counting it as requests.
+     *
+     * @param suspended {@code true} to suspend, {@code false} to resume
+     */
+    static void setSuspended(boolean suspended) {
+        if (suspended == isSuspended()) return;
+        if (suspended) {
+            SUSPENDED.set(Boolean.TRUE);
+            suspensions.incrementAndGet();
+        } else {
+            SUSPENDED.remove();
+            suspensions.decrementAndGet();
+        }
+    }
+
+    private static boolean isSuspended() {
+        return suspensions.get() != 0 && SUSPENDED.get() != null;
+    }
+
+    /**
+     * @param nanos the time to provide the page: to get it from the cache or
+     *              to render it and, if streamed, the time spent in reading
+     *              it (but not the time in between, e.g. to send the read
+     *              bytes to the client)
+     */
+    void recordPage(long nanos) {
+        if (isSuspended()) return;
+        pageLatency.record(nanos);
+    }
+
+    /**
+     * @param bytes the size of the rendered page
+     */
+    void recordRenderedPage(int bytes) {
+        if (isSuspended()) return;
+        pagesRendered.increment();
+        pageBytes.add(bytes);
+    }
+
+    /**
+     * @param nanos the time to resolve the link
+     * @param resolved {@code false} if the link target has not been found
+     */
+    void recordLinkRewrite(long nanos, boolean resolved) {
+        if (isSuspended()) return;
+        linkRewriteLatency.record(nanos);
+        if (!resolved) {
+            linksNotResolved.increment();
+        }
+    }
+
+    void recordLinkInSourceBundle() {
+        if (isSuspended()) return;
+        linksInSourceBundle.increment();
+    }
+
+    void recordLinkInPoolBundle() {
+        if (isSuspended()) return;
+        linksInPoolBundle.increment();
+    }
+
+    /**
+     * @param nanos the time to look up the resource
+     * @param fromZip {@code true} if found in a zip file
+     * @param found {@code false} if the resource has not been found
+     */
+    void recordLookup(long nanos, boolean fromZip, boolean found) {
+        if (isSuspended()) return;
+        lookupLatency.record(nanos);
+        (!found ? lookupMisses : fromZip ? lookupZipHits : lookupFileHits).increment();
+    }
+
+    void recordExistsCheck(boolean exists) {
+        if (isSuspended()) return;
+        (exists ? existsCheckHits : existsCheckMisses).increment();
+    }
+
+    void recordPoolRegistryRebuild(long nanos) {
+        if (isSuspended()) return;
+        poolRegistryRebuildLatency.record(nanos);
+    }
+
+    // --- MBean
+
+    public long getPageRequests() {
+        return pageLatency.getCount();
+    }
+
+    public long getPagesRendered() {
+        return pagesRendered.get();
+    }
+
+    public long getPageBytes() {
+        return pageBytes.get();
+    }
+
+    public double getPageLatencyMeanMicros() {
+        return getMeanMicros(pageLatency);
+    }
+
+    public long getPageLatencyMaxMicros() {
+        return pageLatency.getMaxNanos() / 1000;
+    }
+
+    public long[] getPageLatencyHistogram() {
+        return pageLatency.getBuckets();
+    }
+
+    public long getLinkRewrites() {
+        return linkRewriteLatency.getCount();
+    }
+
+    public long getLinksResolvedInSourceBundle() {
+        return linksInSourceBundle.get();
+    }
+
+    public long getLinksResolvedInPoolBundle() {
+        return linksInPoolBundle.get();
+    }
+
+    public long getLinksNotResolved() {
+        return linksNotResolved.get();
+    }
+
+    public double getLinkRewriteLatencyMeanMicros() {
+        return getMeanMicros(linkRewriteLatency);
+    }
+
+    public long getLinkRewriteLatencyMaxMicros() {
+        return linkRewriteLatency.getMaxNanos() / 1000;
+    }
+
+    public long[] getLinkRewriteLatencyHistogram() {
+        return linkRewriteLatency.getBuckets();
+    }
+
+    public long getLookupZipHits() {
+        return lookupZipHits.get();
+    }
+
+    public long getLookupFileHits() {
+        return lookupFileHits.get();
+    }
+
+    public long getLookupMisses() {
+        return lookupMisses.get();
+    }
+
+    public long getExistsCheckHits() {
+        return existsCheckHits.get();
+    }
+
+    public long getExistsCheckMisses() {
+        return existsCheckMisses.get();
+    }
+
+    public double getLookupLatencyMeanMicros() {
+        return getMeanMicros(lookupLatency);
+    }
+
+    public long getLookupLatencyMaxMicros() {
+        return lookupLatency.getMaxNanos() / 1000;
+    }
+
+    public long[] getLookupLatencyHistogram() {
+        return lookupLatency.getBuckets();
+    }
+
+    public long getPoolRegistryRebuilds() {
+        return poolRegistryRebuildLatency.getCount();
+    }
+
+    public double getPoolRegistryRebuildLatencyMeanMicros() {
+        return getMeanMicros(poolRegistryRebuildLatency);
+    }
+
+    public long getPoolRegistryRebuildLatencyMaxMicros() {
+        return poolRegistryRebuildLatency.getMaxNanos() / 1000;
+    }
+
+    public long[] getPoolRegistryRebuildLatencyHistogram() {
+        return poolRegistryRebuildLatency.getBuckets();
+    }
+
+    public void reset() {
+        pagesRendered.reset();
+        pageBytes.reset();
+        pageLatency.reset();
+        linksNotResolved.reset();
+        linksInSourceBundle.reset();
+        linksInPoolBundle.reset();
+        linkRewriteLatency.reset();
+        lookupZipHits.reset();
+        lookupFileHits.reset();
+        lookupMisses.reset();
+        existsCheckHits.reset();
+        existsCheckMisses.reset();
+        lookupLatency.reset();
+        poolRegistryRebuildLatency.reset();
+    }
+
+    private static double getMeanMicros(LatencyHistogram histogram) {
+        long count = histogram.getCount();
+        return count == 0 ? 0 : histogram.getTotalNanos() / 1000.0 / count;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+/**
+ * Management interface of {@link CrossLinkMetrics}: counters since the start
+ * (or the last {@link #reset()}) and latency histograms. Each histogram is an
+ * array in which element {@code i} is the number of durations less than
+ * 2<sup>i</sup> microseconds (and not less than 2<sup>i-1</sup>
+ * microseconds).
+ */
+public interface CrossLinkMetricsMBean {
+
+    /** @return the number of requested (X)HTML pages */
+    long getPageRequests();
+
+    /**
+     * @return the number of (X)HTML pages which have been rendered to be
+     *         added to the rendered page cache (the other requests have been
+     *         served from the cache or streamed)
+     */
+    long getPagesRendered();
+
+    /** @return the total size in bytes of the rendered pages */
+    long getPageBytes();
+
+    /**
+     * @return the mean time to provide a page: to get it from the cache or to
+     *         render it and, if streamed, to read it (without the time to
+     *         send it to the client)
+     */
+    double getPageLatencyMeanMicros();
+
+    long getPageLatencyMaxMicros();
+
+    long[] getPageLatencyHistogram();
+
+    /** @return the number of rewritten cross links */
+    long getLinkRewrites();
+
+    /** @return the number of cross links which target the source bundle */
+    long getLinksResolvedInSourceBundle();
+
+    /** @return the number of cross links which target another pool bundle */
+    long getLinksResolvedInPoolBundle();
+
+    /**
+     * @return the number of cross links which cannot be resolved (and which
+     *         have been rewritten to the error page)
+     */
+    long getLinksNotResolved();
+
+    double getLinkRewriteLatencyMeanMicros();
+
+    long getLinkRewriteLatencyMaxMicros();
+
+    long[] getLinkRewriteLatencyHistogram();
+
+    /** @return the number of help content resources opened from zip files */
+    long getLookupZipHits();
+
+    /** @return the number of help content resources opened from files */
+    long getLookupFileHits();
+
+    /** @return the number of help content resources not found */
+    long getLookupMisses();
+
+    /** @return the number of existence checks of existing resources */
+    long getExistsCheckHits();
+
+    /** @return the number of existence checks of missing resources */
+    long getExistsCheckMisses();
+
+    double getLookupLatencyMeanMicros();
+
+    long getLookupLatencyMaxMicros();
+
+    long[] getLookupLatencyHistogram();
+
+    /** @return the number of rebuilds of the pool registry */
+    long getPoolRegistryRebuilds();
+
+    double getPoolRegistryRebuildLatencyMeanMicros();
+
+    long getPoolRegistryRebuildLatencyMaxMicros();
+
+    long[] getPoolRegistryRebuildLatencyHistogram();
+
+    /** Sets all counters and histograms to zero. */
+    void reset();
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel counterpart of {@link CrossLinksResolvedInputStream}: reads from a
+ * (blocking) channel, e.g. a {@link java.nio.channels.FileChannel}, and
+ * resolves the contained cross links in the same way. The transformed content
+ * can be read into heap or direct buffers, e.g. to write it to a socket
+ * channel without {@link java.io.InputStream} copies.
+ */
+public class CrossLinksResolvedChannel implements ReadableByteChannel {
+
+    /** The transformer which reads from the wrapped channel. */
+    private final CrossLinksResolvedInputStream transformer;
+
+    /** To read into buffers without accessible array (created on demand). */
+    private byte[] transferBuffer;
+
+    private boolean open = true;
+
+    /**
+     * @param in the blocking channel to wrap and to resolve the containing
+     *           cross-links; must not be {@null}
+     * @param hrefResolver the resolver to use to resolve cross links
+     */
+    public CrossLinksResolvedChannel(ReadableByteChannel in,
+                                     IHrefResolver hrefResolver) {
+        transformer = new CrossLinksResolvedInputStream(in, hrefResolver);
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        int len = dst.remaining();
+        if (len == 0) return 0;
+
+        // heap buffer: directly
+        if (dst.hasArray()) {
+            int read = transformer.read(dst.array(),
+                                        dst.arrayOffset() + dst.position(),
+                                        len);
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        // direct (or read-only) buffer: via transfer buffer
+        if (transferBuffer == null) {
+            transferBuffer = new byte[8192];
+        }
+        int read = transformer.read(transferBuffer,
+                                    0,
+                                    Math.min(len, transferBuffer.length));
+        if (read > 0) {
+            dst.put(transferBuffer, 0, read);
+        }
+        return read;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        transformer.close();
+    }
+
+}
@@ -13,9 +13,16 @@ package net.sf.helpaddons.crosslinkmanager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 
 /**
- * 8-bit encoded only (UTF-8 and other codepages but not UTF-16);
+ * 8-bit encoded (UTF-8 and other codepages) or UTF-16: UTF-16 is detected by
+ * the byte order mark or, without byte order mark, by a zero byte within the
+ * first two bytes (the content of an HTML file starts with an ASCII character
+ * like '<' or a blank); UTF-16 content is streamed through UTF-8 and encoded
+ * back to UTF-16 (in the same byte order) chunk by chunk;
  *
  * case insensitive: tag and attribute names; "a" must be followed by a blank
  * (not by a tab or new line);
@@ -23,8 +30,8 @@ import java.io.UnsupportedEncodingException;
  * attribute values could be enclosed by double or single quotes:
  * {@code href="..."} or {@code href='...'}.
  *
- * Length of link start tag {@code <a href="..." ... >} must be less or equal
- * {@link #BUFFER_SIZE}.
+ * Length of link start tag {@code <a href="..." ... >} must be less than
+ * {@link #MAX_BUFFER_SIZE}; longer start tags are returned unchanged.
  *
  * Examples:
  * <ul>
@@ -38,8 +45,22 @@ public class CrossLinksResolvedInputStream extends InputStream {
 
     private static final String ENCODING = "UTF-8";
 
+    /** Initial size of the look-ahead buffer, sufficient for most tags. */
     private static final int BUFFER_SIZE = 4096;
 
+    /**
+     * The size up to which the look-ahead buffer grows to scan a long start
+     * tag (default: 64 KB); afterwards the buffer is shrunk to
+     * {@link #BUFFER_SIZE} again.
+     */
+    private static final int MAX_BUFFER_SIZE =
+        Math.max(BUFFER_SIZE,
+                 Integer.getInteger("net.sf.helpaddons.crosslinkmanager.maxTagLength",
+                                    65536).intValue());
+
+    /** Size of the chunks which are read at once from the wrapped stream. */
+    private static final int IN_BUFFER_SIZE = 8192;
+
     private static final int CHAR_LT    = (int)'<';
     private static final int CHAR_DASH  = (int)'-';
     private static final int CHAR_SLASH = (int)'/';
@@ -59,16 +80,63 @@ public class CrossLinksResolvedInputStream extends InputStream {
     private static final int CHAR_L = (int)'l';
     private static final int CHAR_S = (int)'s';
 
-    /** Wrapped in(put stream) to transform. */
+
+    /** Attribute to add if the link target does not exist. */
+    private static final byte[] CLASS_ATTRIBUTE =
+        new byte[] {' ', 'c', 'l', 'a', 's', 's', '='};
+
+    /** Wrapped in(put stream) to transform or {@code null} if a channel is
+     *  wrapped. */
     private final InputStream in;
 
+    /** Wrapped channel to transform or {@code null} if a stream is wrapped. */
+    private final ReadableByteChannel channel;
+
+    /** {@link #inBuffer} as {@link ByteBuffer} (to read from a channel). */
+    private final ByteBuffer inByteBuffer;
+
     /** Resolver to transform 'href' attribute values. */
     private final IHrefResolver hrefResolver;
 
     private final byte[] notFoundClassName;
-    private final int[] ringBuffer = new int[BUFFER_SIZE];
-    private int ringBufferStart = 0;
-    private int ringBufferEnd = 0;
+
+    /** Chunk read from the wrapped stream but not yet processed. */
+    private final byte[] inBuffer = new byte[IN_BUFFER_SIZE];
+    private int inBufferPos = 0;
+    private int inBufferEnd = 0;
+
+    /**
+     * Looked ahead or transformed bytes which have not been returned yet; the
+     * buffer is always emptied before it is filled again, so the content
+     * always starts at index 0 when a new tag is looked ahead.
+     */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferStart = 0;
+    private int bufferEnd = 0;
+
+    /**
+     * Reusable workspace into which a cross-link start tag is morphed; after
+     * morphing {@link #buffer} and workspace are swapped.
+     */
+    private byte[] workspace = new byte[BUFFER_SIZE];
+    private int workspaceEnd = 0;
+
+    /**
+     * {@code true} if {@link #buffer} or {@link #workspace} has grown beyond
+     * {@link #BUFFER_SIZE} and has to be shrunk when the buffer is empty.
+     */
+    private boolean grown = false;
+
+    /** {@code false} until the first chunk has been checked for UTF-16. */
+    private boolean encodingDetected = false;
+
+    /**
+     * If the wrapped content is UTF-16 encoded: the transformed content
+     * (transformed as UTF-8 and encoded back to UTF-16) to return instead;
+     * otherwise {@code null}.
+     */
+    private InputStream utf16;
+
     private boolean awaitEndTag = false;
 
     /**
@@ -79,6 +147,25 @@ public class CrossLinksResolvedInputStream extends InputStream {
     public CrossLinksResolvedInputStream(InputStream in,
                                          IHrefResolver hrefResolver) {
         this.in = in;
+        this.channel = null;
+        this.inByteBuffer = null;
+        this.hrefResolver = hrefResolver;
+        this.notFoundClassName = computeClassName(hrefResolver);
+    }
+
+    /**
+     * Reads from a channel instead of a stream (see
+     * {@link CrossLinksResolvedChannel}).
+     *
+     * @param channel the blocking channel to wrap and to resolve the
+     *                containing cross-links; must not be {@null}
+     * @param hrefResolver the resolver to use to resolve cross links
+     */
+    CrossLinksResolvedInputStream(ReadableByteChannel channel,
+                                  IHrefResolver hrefResolver) {
+        this.in = null;
+        this.channel = channel;
+        this.inByteBuffer = ByteBuffer.wrap(inBuffer);
         this.hrefResolver = hrefResolver;
         this.notFoundClassName = computeClassName(hrefResolver);
     }
@@ -93,209 +180,319 @@ public class CrossLinksResolvedInputStream extends InputStream {
    }
 
     public int read() throws IOException {
-        if (in == null) return -1; // even if "in" must not be null
-
-        if (ringBufferStart == ringBufferEnd) {
-
-            // next char: '<'?
-            int read;
-            if ((read = in.read()) != CHAR_LT) return read;
-
-            // look ahead:
-
-            // next char: '!'?
-            read = in.read();
-            ringBuffer[ringBufferEnd] = read;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            if (read != CHAR_EXCLAMATION_MARK) return CHAR_LT;
-
-            // next char: '-'?
-            read = in.read();
-            ringBuffer[ringBufferEnd] = read;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            if (read != CHAR_DASH) return CHAR_LT;
-
-            // next char: '-'?
-            read = in.read();
-            ringBuffer[ringBufferEnd] = read;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            if (read != CHAR_DASH) return CHAR_LT;
-
-            // await end tag: <!--/a-->
-            if (awaitEndTag) {
-
-                // next char: '/'?
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (read != CHAR_SLASH) return CHAR_LT;
-
-                // next char: 'a'?
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (read != CHAR_A) return CHAR_LT;
-
-                // next char: '-'?
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (read != CHAR_DASH) return CHAR_DASH;
-
-                // next char: '-'?
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (read != CHAR_DASH) return CHAR_DASH;
-
-                // next char: '>'?
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (read != CHAR_GT) return CHAR_GT;
-
-                // replace with </a>
-                ringBuffer[ringBufferStart] = CHAR_SLASH;
-                ringBuffer[(ringBufferStart + 1) % BUFFER_SIZE] = CHAR_A;
-                ringBuffer[(ringBufferStart + 2) % BUFFER_SIZE] = CHAR_GT;
-                ringBufferEnd = (ringBufferStart + 3) % BUFFER_SIZE;
-                awaitEndTag = false;
-                return CHAR_LT;
+        if (in == null && channel == null) return -1; // even if "in" must not be null
+        if (!encodingDetected) detectEncoding();
+        if (utf16 != null) return utf16.read();
+
+        if (bufferStart < bufferEnd) return buffer[bufferStart++] & 0xFF;
+        bufferStart = 0;
+        bufferEnd = 0;
+        if (grown) shrink();
+
+        // next char: '<'?
+        int read;
+        if ((read = next()) != CHAR_LT) return read;
+
+        // look ahead: "!--"
+        if (lookAhead() != CHAR_EXCLAMATION_MARK) return CHAR_LT;
+        if (lookAhead() != CHAR_DASH) return CHAR_LT;
+        if (lookAhead() != CHAR_DASH) return CHAR_LT;
+
+        // await end tag: <!--/a-->
+        if (awaitEndTag) {
+            if (lookAhead() != CHAR_SLASH) return CHAR_LT;
+            if (lookAhead() != CHAR_A) return CHAR_LT;
+            if (lookAhead() != CHAR_DASH) return CHAR_LT;
+            if (lookAhead() != CHAR_DASH) return CHAR_LT;
+            if (lookAhead() != CHAR_GT) return CHAR_LT;
+
+            // replace with </a>
+            buffer[0] = CHAR_SLASH;
+            buffer[1] = CHAR_A;
+            buffer[2] = CHAR_GT;
+            bufferEnd = 3;
+            awaitEndTag = false;
+            return CHAR_LT;
+
+        }
+
+        // next chars: "a "?
+        if (lookAhead() != CHAR_A) return CHAR_LT;
+        if (lookAhead() != CHAR_BLANK) return CHAR_LT;
+
+        // fill buffer until "-->"
+        while (true) {
+
+            // "-"
+            read = lookAhead();
+            if (   read < 0
+                || (bufferEnd == buffer.length - 1 && !grow())) return CHAR_LT;
+            if (read != CHAR_DASH) continue;
+
+            // "--"
+            read = lookAhead();
+            if (   read < 0
+                || (bufferEnd == buffer.length - 1 && !grow())) return CHAR_LT;
+            if (read != CHAR_DASH) continue;
+
+            // "-->"
+            read = lookAhead();
+            if (   read < 0
+                || (bufferEnd == buffer.length - 1 && !grow())) return CHAR_LT;
+            if (read == CHAR_GT) break;
+        }
+
+        // morph (in place, without copying the looked ahead bytes)
+        final int size = bufferEnd;
+        int hrefStart = -6;
+        int hrefLength = -1;
+        int hrefPrefixLength = 0;
+        int classStart = -7;
+        int classLength = -1;
+        boolean doubleQuote = true;
+        for (int i = 0; i < size; i++) {
+            int current = buffer[i];
+
+            if (   (hrefStart == -6 || hrefLength >= 0)
+                && (classStart == -7 || classLength >= 0)) {
+                if (hrefStart == -6) {
+                    hrefStart = current == CHAR_H ? -5 : -6;
+                }
+                if (classStart == -7) {
+                    classStart = current == CHAR_C ? -6 : -7;
+                }
+            } else if (hrefLength >= 0 && classLength >= 0) {
+                // NOP (performance: skip other if tests)
+            } else if (   hrefStart > 0
+                       && hrefLength < 0
+                       && (   (doubleQuote && current == CHAR_QUOTE)
+                           || (!doubleQuote && current == CHAR_SINGLEQUOTE))) {
+                hrefLength = i - hrefStart;
+            } else if (   hrefStart > 0
+                       && hrefLength < 0
+                       && current == CHAR_LT) {
+                hrefPrefixLength = i - hrefStart;
+            } else if (   classStart > 0
+                       && classLength < 0
+                       && (   (doubleQuote && current == CHAR_QUOTE)
+                           || (!doubleQuote && current == CHAR_SINGLEQUOTE))) {
+                classLength = i - classStart;
+            } else if (hrefStart == -5) {
+                hrefStart = current == CHAR_R ? -4 : -6;
+            } else if (hrefStart == -4) {
+                hrefStart = current == CHAR_E ? -3 : -6;
+            } else if (hrefStart == -3) {
+                hrefStart = current == CHAR_F ? -2 : -6;
+            } else if (hrefStart == -2) {
+                if (current == CHAR_EQUAL) {
+                    hrefStart = -1;
+                }
+            } else if (hrefStart == -1) {
+                doubleQuote = current == CHAR_QUOTE;
+                if (doubleQuote || current == CHAR_SINGLEQUOTE) {
+                    hrefStart = i + 1;
+                }
+            } else if (classStart == -6) {
+                classStart = current == CHAR_L ? -5 : -7;
+            } else if (classStart == -5) {
+                classStart = current == CHAR_A ? -4 : -7;
+            } else if (classStart == -4) {
+                classStart = current == CHAR_S ? -3 : -7;
+            } else if (classStart == -3) {
+                classStart = current == CHAR_S ? -2 : -7;
+            } else if (classStart == -2) {
+                if (current == CHAR_EQUAL) {
+                    classStart = -1;
+                }
+            } else if (classStart == -1) {
+                doubleQuote = current == CHAR_QUOTE;
+                if (doubleQuote || current == CHAR_SINGLEQUOTE) {
+                    classStart = i + 1;
+                }
+            }
+
+        }
+        awaitEndTag = resolve(size,
+                              hrefStart,
+                              hrefLength,
+                              hrefPrefixLength,
+                              classStart,
+                              classLength);
+        return CHAR_LT;
+
+    }
 
+    /**
+     * Block-oriented variant of {@link #read()}: runs without any cross-link
+     * markers (which always start with '<') are copied at once; only the
+     * markers themselves are processed byte by byte.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (b == null) throw new NullPointerException();
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (in == null && channel == null) return -1; // even if "in" must not be null
+        if (!encodingDetected) detectEncoding();
+        if (utf16 != null) return utf16.read(b, off, len);
+
+        int count = 0;
+        while (count < len) {
+
+            // looked ahead or transformed bytes first
+            if (bufferStart < bufferEnd) {
+                int toCopy = Math.min(bufferEnd - bufferStart, len - count);
+                System.arraycopy(buffer, bufferStart, b, off + count, toCopy);
+                bufferStart += toCopy;
+                count += toCopy;
+                continue;
             }
 
-            // next char: 'a'?
-            read = in.read();
-            ringBuffer[ringBufferEnd] = read;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            if (read != CHAR_A) return CHAR_LT;
-
-            // next char: ' '?
-            read = in.read();
-            ringBuffer[ringBufferEnd] = read;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            if (read != CHAR_BLANK) return CHAR_LT;
-
-            // fill buffer until "-->"
-            int bufferLimit = (ringBufferStart + BUFFER_SIZE - 1) % BUFFER_SIZE;
-            while (true) {
-
-                // "-"
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (   read < 0
-                    || ringBufferEnd == bufferLimit) return CHAR_LT;
-                if (read != CHAR_DASH) continue;
-
-                // "--"
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (   read < 0
-                    || ringBufferEnd == bufferLimit) return CHAR_LT;
-                if (read != CHAR_DASH) continue;
-
-                // "-->"
-                read = in.read();
-                ringBuffer[ringBufferEnd] = read;
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                if (   read < 0
-                    || ringBufferEnd == bufferLimit) return CHAR_LT;
-                if (read == CHAR_GT) break;
+            // do not block if there is already something to return
+            if (inBufferPos == inBufferEnd) {
+                if (count > 0 || !fill()) break;
             }
 
-            // morph
-            final int size = ringBufferEnd >= ringBufferStart
-                             ? ringBufferEnd - ringBufferStart
-                             : ringBufferEnd + BUFFER_SIZE - ringBufferStart;
-
-            int hrefStart = -6;
-            int hrefLength = -1;
-            int hrefPrefixLength = 0;
-            int classStart = -7;
-            int classLength = -1;
-            boolean doubleQuote = true;
-            byte[] bytes = new byte[size];
-            for (int i = 0; i < size; i++) {
-                int current = ringBuffer[(ringBufferStart + i) % BUFFER_SIZE];
-
-                if (   (hrefStart == -6 || hrefLength >= 0)
-                    && (classStart == -7 || classLength >= 0)) {
-                    if (hrefStart == -6) {
-                        hrefStart = current == CHAR_H ? -5 : -6;
-                    }
-                    if (classStart == -7) {
-                        classStart = current == CHAR_C ? -6 : -7;
-                    }
-                } else if (hrefLength >= 0 && classLength >= 0) {
-                    // NOP (performance: skip other if tests)
-                } else if (   hrefStart > 0
-                           && hrefLength < 0
-                           && (   (doubleQuote && current == CHAR_QUOTE)
-                               || (!doubleQuote && current == CHAR_SINGLEQUOTE))) {
-                    hrefLength = i - hrefStart;
-                } else if (   hrefStart > 0
-                           && hrefLength < 0
-                           && current == CHAR_LT) {
-                    hrefPrefixLength = i - hrefStart;
-                } else if (   classStart > 0
-                           && classLength < 0
-                           && (   (doubleQuote && current == CHAR_QUOTE)
-                               || (!doubleQuote && current == CHAR_SINGLEQUOTE))) {
-                    classLength = i - classStart;
-                } else if (hrefStart == -5) {
-                    hrefStart = current == CHAR_R ? -4 : -6;
-                } else if (hrefStart == -4) {
-                    hrefStart = current == CHAR_E ? -3 : -6;
-                } else if (hrefStart == -3) {
-                    hrefStart = current == CHAR_F ? -2 : -6;
-                } else if (hrefStart == -2) {
-                    if (current == CHAR_EQUAL) {
-                        hrefStart = -1;
-                    }
-                } else if (hrefStart == -1) {
-                    doubleQuote = current == CHAR_QUOTE;
-                    if (doubleQuote || current == CHAR_SINGLEQUOTE) {
-                        hrefStart = i + 1;
-                    }
-                } else if (classStart == -6) {
-                    classStart = current == CHAR_L ? -5 : -7;
-                } else if (classStart == -5) {
-                    classStart = current == CHAR_A ? -4 : -7;
-                } else if (classStart == -4) {
-                    classStart = current == CHAR_S ? -3 : -7;
-                } else if (classStart == -3) {
-                    classStart = current == CHAR_S ? -2 : -7;
-                } else if (classStart == -2) {
-                    if (current == CHAR_EQUAL) {
-                        classStart = -1;
-                    }
-                } else if (classStart == -1) {
-                    doubleQuote = current == CHAR_QUOTE;
-                    if (doubleQuote || current == CHAR_SINGLEQUOTE) {
-                        classStart = i + 1;
-                    }
-                }
+            // copy all up to next '<'
+            int end = Math.min(inBufferEnd, inBufferPos + len - count);
+            int i = inBufferPos;
+            while (i < end && inBuffer[i] != CHAR_LT) i++;
+            if (i > inBufferPos) {
+                System.arraycopy(inBuffer, inBufferPos, b, off + count, i - inBufferPos);
+                count += i - inBufferPos;
+                inBufferPos = i;
+            }
 
-                bytes[i] = (byte)current;
+            // '<': maybe the start of a cross-link marker
+            if (i < end) {
+                b[off + count++] = (byte)read();
             }
-            awaitEndTag = resolve(bytes,
-                                  hrefStart,
-                                  hrefLength,
-                                  hrefPrefixLength,
-                                  classStart,
-                                  classLength);
-            return CHAR_LT;
         }
+        return count == 0 ? -1 : count;
+    }
 
-        int result = ringBuffer[ringBufferStart];
-        ringBufferStart = (ringBufferStart + 1) % BUFFER_SIZE;
-        return result;
+    /**
+     * @return the next byte of the wrapped stream or {@code -1} if the end of
+     *         the wrapped stream has been reached
+     */
+    private int next() throws IOException {
+        if (inBufferPos == inBufferEnd && !fill()) return -1;
+        return inBuffer[inBufferPos++] & 0xFF;
+    }
 
+    /**
+     * Reads the next byte of the wrapped stream and appends it to the
+     * {@link #buffer}.
+     *
+     * @return the next byte of the wrapped stream or {@code -1} if the end of
+     *         the wrapped stream has been reached
+     */
+    private int lookAhead() throws IOException {
+        int read = next();
+        if (read >= 0) {
+            buffer[bufferEnd++] = (byte)read;
+        }
+        return read;
     }
 
-    private boolean resolve(byte[] bytes,
+    /**
+     * Reads the next chunk of the wrapped stream into {@link #inBuffer}.
+     *
+     * @return {@code false} if and only if the end of the wrapped stream has
+     *         been reached
+     */
+    private boolean fill() throws IOException {
+        int read = readRaw(0);
+        if (read < 0) return false;
+        inBufferPos = 0;
+        inBufferEnd = read;
+        return true;
+    }
+
+    /**
+     * Reads the next bytes of the wrapped stream into {@link #inBuffer}.
+     *
+     * @param off the start offset in {@link #inBuffer}
+     * @return the number of bytes read or {@code -1} if the end of the
+     *         wrapped stream has been reached
+     */
+    private int readRaw(int off) throws IOException {
+        int read;
+        do {
+            if (channel == null) {
+                read = in.read(inBuffer, off, IN_BUFFER_SIZE - off);
+            } else {
+                inByteBuffer.limit(IN_BUFFER_SIZE).position(off);
+                read = channel.read(inByteBuffer);
+            }
+        } while (read == 0);
+        return read;
+    }
+
+    /**
+     * Reads the first bytes and, if they indicate UTF-16, sets up
+     * {@link #utf16}.
+     */
+    private void detectEncoding() throws IOException {
+        encodingDetected = true;
+
+        // first two bytes
+        if (!fill()) return;
+        if (inBufferEnd < 2) {
+            int read = readRaw(inBufferEnd);
+            if (read < 0) return;
+            inBufferEnd += read;
+        }
+        int first = inBuffer[0] & 0xFF;
+        int second = inBuffer[1] & 0xFF;
+        boolean bigEndian;
+        if (first == 0xFE && second == 0xFF) {
+            bigEndian = true;
+        } else if (first == 0xFF && second == 0xFE) {
+            bigEndian = false;
+        } else if (first == 0 && second != 0) {
+            bigEndian = true;
+        } else if (first != 0 && second == 0) {
+            bigEndian = false;
+        } else {
+            return;
+        }
+
+        // UTF-16 -> UTF-8 -> transform -> UTF-16 (the byte order mark, if
+        // any, is kept as U+FEFF character)
+        Charset utf8 = Charset.forName(ENCODING);
+        Charset utf16Charset =
+            Charset.forName(bigEndian ? "UTF-16BE" : "UTF-16LE");
+        InputStream transformed = new CrossLinksResolvedInputStream(
+                new TranscodingInputStream(new RawInputStream(),
+                                           utf16Charset,
+                                           utf8),
+                hrefResolver);
+        utf16 = new TranscodingInputStream(transformed, utf8, utf16Charset);
+    }
+
+    /** The untransformed content (including already read bytes). */
+    private class RawInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            return next();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (inBufferPos == inBufferEnd && !fill()) return -1;
+            int count = Math.min(len, inBufferEnd - inBufferPos);
+            System.arraycopy(inBuffer, inBufferPos, b, off, count);
+            inBufferPos += count;
+            return count;
+        }
+
+    }
+
+    private boolean resolve(int size,
                             int hrefStart,
                             int hrefLength,
                             int hrefPrefixLength,
@@ -308,20 +505,26 @@ public class CrossLinksResolvedInputStream extends InputStream {
         int hrefPrefixLengthWithDelimiter = hrefPrefixLength <= 0
                                             ? 0
                                             : hrefPrefixLength + 1;
-        String href = new String(bytes,
+        String href = new String(buffer,
                                  hrefStart + hrefPrefixLengthWithDelimiter,
                                  hrefLength - hrefPrefixLengthWithDelimiter,
                                  ENCODING);
+        long start = System.nanoTime();
         String hrefResolved = hrefResolver.resolve(href);
-        String targetId = hrefPrefixLength <= 0
-                          ? null
-                          : new String(bytes,
-                                       hrefStart,
-                                       hrefPrefixLength,
-                                       ENCODING);
-        byte[] newHref = hrefResolved == null
-                         ? hrefResolver.getNotFoundHref(targetId).getBytes(ENCODING)
-                         : hrefResolved.getBytes(ENCODING);
+        String newHref = hrefResolved;
+        if (hrefResolved == null) {
+            String targetId = hrefPrefixLength <= 0
+                              ? null
+                              : new String(buffer,
+                                           hrefStart,
+                                           hrefPrefixLength,
+                                           ENCODING);
+            newHref = hrefResolver.getNotFoundHref(targetId);
+        }
+        CrossLinkMetrics.INSTANCE.recordLinkRewrite(System.nanoTime() - start,
+                                                    hrefResolved != null);
+
+        workspaceEnd = 0;
 
         // cross-link target not found and "class=..." exists?
         if (hrefResolved == null && classLength >= 0) {
@@ -330,141 +533,173 @@ public class CrossLinksResolvedInputStream extends InputStream {
             if (classStart < hrefStart) {
 
                 // beginning without "!--"
-                ringBufferEnd = ringBufferStart;
-                for (int i = 3; i < classStart; i++) {
-                    ringBuffer[ringBufferEnd] = bytes[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(buffer, 3, classStart);
 
                 // "class"
-                for (int i = 0; i < notFoundClassName.length; i++) {
-                    ringBuffer[ringBufferEnd] = notFoundClassName[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(notFoundClassName, 0, notFoundClassName.length);
 
                 // middle (part between class=... and href=...)
-                for (int i = classStart + classLength; i < hrefStart; i++) {
-                    ringBuffer[ringBufferEnd] = bytes[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(buffer, classStart + classLength, hrefStart);
 
                 // "href"
-                for (int i = 0; i < newHref.length; i++) {
-                    ringBuffer[ringBufferEnd] = newHref[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(newHref);
 
                 // rest
-                for (int i = hrefStart + hrefLength; i < bytes.length - 3; i++) {
-                    ringBuffer[ringBufferEnd] = bytes[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
-                ringBuffer[ringBufferEnd] = bytes[bytes.length - 1];
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+                append(buffer, hrefStart + hrefLength, size - 3);
+                append(buffer, size - 1, size);
 
             // href=... class=...
             } else {
 
                 // beginning without "!--"
-                ringBufferEnd = ringBufferStart;
-                for (int i = 3; i < hrefStart; i++) {
-                    ringBuffer[ringBufferEnd] = bytes[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(buffer, 3, hrefStart);
 
                 // "href"
-                for (int i = 0; i < newHref.length; i++) {
-                    ringBuffer[ringBufferEnd] = newHref[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(newHref);
 
                 // middle (part between href=... and class=...)
-                for (int i = hrefStart + hrefLength; i < classStart; i++) {
-                    ringBuffer[ringBufferEnd] = bytes[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(buffer, hrefStart + hrefLength, classStart);
 
                 // "class"
-                for (int i = 0; i < notFoundClassName.length; i++) {
-                    ringBuffer[ringBufferEnd] = notFoundClassName[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
+                append(notFoundClassName, 0, notFoundClassName.length);
 
                 // rest
-                for (int i = classStart + classLength; i < bytes.length - 3; i++) {
-                    ringBuffer[ringBufferEnd] = bytes[i];
-                    ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-                }
-                ringBuffer[ringBufferEnd] = bytes[bytes.length - 1];
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+                append(buffer, classStart + classLength, size - 3);
+                append(buffer, size - 1, size);
 
             }
 
-            return true;
-        }
+        } else {
 
-        // beginning without "!--"
-        ringBufferEnd = ringBufferStart;
-        for (int i = 3; i < hrefStart; i++) {
-            ringBuffer[ringBufferEnd] = bytes[i];
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-        }
+            // beginning without "!--"
+            append(buffer, 3, hrefStart);
 
-        // replace "href" value
-        for (int i = 0; i < newHref.length; i++) {
-            ringBuffer[ringBufferEnd] = newHref[i];
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-        }
+            // replace "href" value
+            append(newHref);
 
-        // end quote char
-        ringBuffer[ringBufferEnd] = bytes[hrefStart + hrefLength];
-        ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+            // end quote char
+            append(buffer, hrefStart + hrefLength, hrefStart + hrefLength + 1);
 
-        // add: class="..."?
-        if (hrefResolved == null) {
-            ringBuffer[ringBufferEnd] = CHAR_BLANK;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = CHAR_C;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = CHAR_L;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = CHAR_A;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = CHAR_S;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = CHAR_S;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = CHAR_EQUAL;
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            ringBuffer[ringBufferEnd] = bytes[hrefStart - 1]; // quote
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
-            for (int i = 0; i < notFoundClassName.length; i++) {
-                ringBuffer[ringBufferEnd] = notFoundClassName[i];
-                ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+            // add: class="..."?
+            if (hrefResolved == null) {
+                append(CLASS_ATTRIBUTE, 0, CLASS_ATTRIBUTE.length);
+                append(buffer, hrefStart - 1, hrefStart); // quote
+                append(notFoundClassName, 0, notFoundClassName.length);
+                append(buffer, hrefStart - 1, hrefStart); // quote
             }
-            ringBuffer[ringBufferEnd] = bytes[hrefStart - 1]; // quote
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+
+            // replace rest
+            append(buffer, hrefStart + hrefLength + 1, size - 3);
+
+            // '>'
+            append(buffer, size - 1, size);
+
         }
 
-        // replace rest
-        for (int i = hrefStart + hrefLength + 1; i < bytes.length - 3; i++) {
-            ringBuffer[ringBufferEnd] = bytes[i];
-            ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+        // swap: the morphed workspace becomes the buffer to read from
+        byte[] morphed = workspace;
+        workspace = buffer;
+        buffer = morphed;
+        bufferStart = 0;
+        bufferEnd = workspaceEnd;
+        return true;
+    }
+
+    /**
+     * Appends the specified range to the {@link #workspace}.
+     */
+    private void append(byte[] bytes, int from, int to) {
+        if (to <= from) return;
+        ensureWorkspaceCapacity(workspaceEnd + to - from);
+        System.arraycopy(bytes, from, workspace, workspaceEnd, to - from);
+        workspaceEnd += to - from;
+    }
+
+    /**
+     * Appends the specified string UTF-8 encoded to the {@link #workspace}
+     * (like {@code string.getBytes("UTF-8")} but without allocating an
+     * intermediate byte array).
+     */
+    private void append(String string) {
+        final int length = string.length();
+        ensureWorkspaceCapacity(workspaceEnd + 3 * length);
+        byte[] out = workspace;
+        int end = workspaceEnd;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                out[end++] = (byte)c;
+            } else if (c < 0x800) {
+                out[end++] = (byte)(0xC0 | (c >> 6));
+                out[end++] = (byte)(0x80 | (c & 0x3F));
+            } else if (   Character.isHighSurrogate(c)
+                       && i + 1 < length
+                       && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                out[end++] = (byte)(0xF0 | (codePoint >> 18));
+                out[end++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                out[end++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                out[end++] = (byte)(0x80 | (codePoint & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE
+                       && c <= Character.MAX_SURROGATE) {
+                out[end++] = (byte)'?'; // unpaired surrogate
+            } else {
+                out[end++] = (byte)(0xE0 | (c >> 12));
+                out[end++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                out[end++] = (byte)(0x80 | (c & 0x3F));
+            }
         }
+        workspaceEnd = end;
+    }
 
-        // '>'
-        ringBuffer[ringBufferEnd] = bytes[bytes.length - 1];
-        ringBufferEnd = (ringBufferEnd + 1) % BUFFER_SIZE;
+    private void ensureWorkspaceCapacity(int capacity) {
+        if (capacity <= workspace.length) return;
+        byte[] grownWorkspace = new byte[Math.max(capacity, 2 * workspace.length)];
+        System.arraycopy(workspace, 0, grownWorkspace, 0, workspaceEnd);
+        workspace = grownWorkspace;
+        grown = true;
+    }
 
+    /**
+     * Doubles the size of the look-ahead {@link #buffer} (at most up to
+     * {@link #MAX_BUFFER_SIZE}).
+     *
+     * @return {@code false} if and only if the buffer cannot grow any further
+     */
+    private boolean grow() {
+        if (buffer.length >= MAX_BUFFER_SIZE) return false;
+        byte[] grownBuffer =
+            new byte[Math.min(2 * buffer.length, MAX_BUFFER_SIZE)];
+        System.arraycopy(buffer, 0, grownBuffer, 0, bufferEnd);
+        buffer = grownBuffer;
+        grown = true;
         return true;
     }
 
+    /**
+     * Replaces the grown (and currently empty) {@link #buffer} and
+     * {@link #workspace} by arrays of the initial size, so that a single long
+     * tag does not bloat the memory for the rest of the page.
+     */
+    private void shrink() {
+        if (buffer.length > BUFFER_SIZE) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        if (workspace.length > BUFFER_SIZE) {
+            workspace = new byte[BUFFER_SIZE];
+        }
+        grown = false;
+    }
+
     @Override
     public void close() throws IOException {
         try {
             if (in != null) {
                 in.close();
             }
+            if (channel != null) {
+                channel.close();
+            }
         } finally {
             super.close();
         }
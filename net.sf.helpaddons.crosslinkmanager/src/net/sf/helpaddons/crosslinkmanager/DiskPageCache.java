@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Disk-backed second tier of the {@link RenderedPageCache}: a directory of
+ * HTML pages with resolved cross links which can be shared by several
+ * processes on the same host (e.g. several help applications or
+ * infocenters), so that a page has to be rendered only once.
+ *
+ * The pages are content-addressed: the file name is the SHA-1 hash of the
+ * bundle symbolic name and state (see {@link #getBundleState(Bundle)}), the
+ * path, the locale and the hash of the pool configuration (see {@link #createKey(String, String, String, String,
+ * String)}), e.g. {@code 4f/8e0c...}. Files are written to a temporary file
+ * first which is then renamed, so that other processes never read partially
+ * written pages. If the total size of the pages exceeds the maximum size,
+ * the least recently used pages (by file modification time, which is updated
+ * on reading) are deleted by a background thread.
+ */
+class DiskPageCache {
+
+    /** The suffix of not yet renamed files. */
+    private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    /**
+     * The minimum age of a temporary file in milliseconds to be deleted on
+     * eviction (younger temporary files might be written right now).
+     */
+    private static final long TMP_MAX_AGE = 60 * 60 * 1000;
+
+    /**
+     * The minimum time in milliseconds after which the modification time of
+     * a read page is updated.
+     */
+    private static final long TOUCH_INTERVAL = 10 * 60 * 1000;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+    private final File dir;
+
+    /** The maximum total size of all cached pages in bytes. */
+    private final long maxSize;
+
+    /**
+     * The bytes written since the last eviction run (an eviction run is
+     * started in the background when exceeding 1/8 of the maximum size).
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** A cached page with the state read before sorting the pages. */
+    private static final class CachedPage {
+
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        private CachedPage(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+    }
+
+    /**
+     * @param dir the directory of the cache (created if it does not exist)
+     * @param maxSize the maximum total size of all cached pages in bytes
+     */
+    DiskPageCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * A bundle can be changed without changing its version, e.g. a rebuilt
+     * bundle installed again or a bundle installed as directory of which
+     * files have been changed, so the state includes the modification time
+     * of the bundle and the fingerprint of its directories (see
+     * {@link ResourceIndex#computeFingerprint(Bundle)}).
+     *
+     * @param bundle the bundle
+     * @return the state of the bundle to be used to create keys (see
+     *         {@link #createKey(String, String, String, String, String)})
+     */
+    static String getBundleState(Bundle bundle) {
+        return ResourceIndex.getVersion(bundle)
+               + ' ' + bundle.getLastModified()
+               + ' ' + ResourceIndex.computeFingerprint(bundle);
+    }
+
+    /**
+     * @param pluginID the bundle symbolic name of the page
+     * @param bundleState the state of the bundle of the page (see
+     *                    {@link #getBundleState(Bundle)})
+     * @param hrefWithoutQuery the path of the page inside the bundle
+     * @param locale the locale of the page (might be {@code null})
+     * @param poolConfigurationHash the hash of the pool configuration
+     * @return the key of the page to be used for {@link #get(String)} and
+     *         {@link #put(String, byte[])}
+     */
+    static String createKey(String pluginID,
+                            String bundleState,
+                            String hrefWithoutQuery,
+                            String locale,
+                            String poolConfigurationHash) {
+        return sha1Hex(pluginID + '\n'
+                       + bundleState + '\n'
+                       + hrefWithoutQuery + '\n'
+                       + locale + '\n'
+                       + poolConfigurationHash);
+    }
+
+    /**
+     * @param text the text to hash
+     * @return the SHA-1 hash of the UTF-8 encoded text as hexadecimal string
+     */
+    static String sha1Hex(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1") //$NON-NLS-1$
+                                       .digest(text.getBytes("UTF-8")); //$NON-NLS-1$
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+                hex[2 * i + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // SHA-1 is always supported
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // UTF-8 is always supported
+        }
+    }
+
+    /**
+     * @param key the key of the page (see
+     *            {@link #createKey(String, String, String, String, String)})
+     * @return the cached page or {@code null} if the page is not cached
+     */
+    byte[] get(String key) {
+        File file = getFile(key);
+        byte[] page = null;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                page = readFully(in, (int) file.length());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // not cached (or evicted in the meantime)
+        }
+        if (page == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (file.lastModified() < now - TOUCH_INTERVAL) {
+            file.setLastModified(now);
+        }
+        return page;
+    }
+
+    /**
+     * Adds a page (unless the page is already cached or too big).
+     *
+     * @param key the key of the page (see
+     *            {@link #createKey(String, String, String, String, String)})
+     * @param page the page to add
+     */
+    void put(String key, byte[] page) {
+        if (page.length > maxSize) return;
+        File file = getFile(key);
+        if (file.exists()) return;
+        File subDir = file.getParentFile();
+        subDir.mkdirs();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(file.getName().substring(0, 8),
+                                      TMP_SUFFIX,
+                                      subDir);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(page);
+            } finally {
+                out.close();
+            }
+
+            // fails if another process has added the same page in the meantime
+            if (tmp.renameTo(file)) {
+                tmp = null;
+            }
+        } catch (IOException e) {
+            // not cached
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+        if (written.addAndGet(page.length) > maxSize / 8) {
+            evictInBackground();
+        }
+    }
+
+    private void evictInBackground() {
+        if (!evicting.compareAndSet(false, true)) return;
+        Thread evictor = new Thread("Disk Page Cache Eviction") { //$NON-NLS-1$
+            public void run() {
+                try {
+                    evictLeastRecentlyUsed();
+                } catch (RuntimeException e) {
+                    CrossLinkManagerPlugin.log("Failed to evict pages of " + dir, //$NON-NLS-1$
+                                               e);
+                } finally {
+                    evicting.set(false);
+                }
+            }
+        };
+
+        // only deletes files which can be deleted by the next run, too
+        evictor.setDaemon(true);
+        evictor.setPriority(Thread.MIN_PRIORITY);
+        evictor.start();
+    }
+
+    /**
+     * Deletes the least recently used pages until the total size is less than
+     * 90% of the maximum size (if the maximum size is exceeded) in the
+     * current thread (unless an eviction is already running).
+     */
+    void evict() {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            evictLeastRecentlyUsed();
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        written.set(0);
+        List<CachedPage> pages = new ArrayList<CachedPage>();
+        long size = 0;
+        long tmpMaxModified = System.currentTimeMillis() - TMP_MAX_AGE;
+        File[] subDirs = dir.listFiles();
+        if (subDirs == null) return;
+        for (File subDir : subDirs) {
+            File[] files = subDir.listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    if (file.lastModified() < tmpMaxModified) {
+                        file.delete();
+                    }
+                    continue;
+                }
+                CachedPage page = new CachedPage(file);
+                pages.add(page);
+                size += page.length;
+            }
+        }
+        if (size <= maxSize) return;
+
+        // sorted by the modification times read before (which might be
+        // changed in the meantime by reading or by other processes)
+        long targetSize = maxSize / 10 * 9;
+        Collections.sort(pages, new Comparator<CachedPage>() {
+            public int compare(CachedPage p1, CachedPage p2) {
+                long m1 = p1.lastModified;
+                long m2 = p2.lastModified;
+                return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < pages.size() && size > targetSize; i++) {
+            CachedPage page = pages.get(i);
+            if (page.file.delete()) {
+                size -= page.length;
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key.substring(2));
+    }
+
+    private static byte[] readFully(InputStream in, int expectedSize)
+            throws IOException {
+        ByteArrayOutputStream out =
+            new ByteArrayOutputStream(Math.max(expectedSize, 32));
+        byte[] buffer = new byte[8192];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /** @return the number of requests of cached pages */
+    long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of requests of not cached pages */
+    long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DiskPageCache[dir=" + dir //$NON-NLS-1$
+               + ", hits=" + getHits() //$NON-NLS-1$
+               + ", misses=" + getMisses() + ']'; //$NON-NLS-1$
+    }
+
+}
@@ -10,33 +10,343 @@
  *******************************************************************************/
 package net.sf.helpaddons.crosslinkmanager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.help.IHelpContentProducer;
 
 public class HelpContentWithCrossLinks implements IHelpContentProducer {
 
+    /** {@code true} as soon as the first (X)HTML page has been requested. */
+    private static volatile boolean requested = false;
+
     public InputStream getInputStream(String pluginID,
                                       String href,
                                       Locale locale) {
 
-        InputStream original =
-            IStaticHelpContent.DEFAULT.getInputStream(pluginID,
-                                                      href,
-                                                      locale);
-
         // transform (X)HTML files only...
         if (hasHtmlFileExtension(href)) {
-            IHrefResolver hrefResolver =
-                CrossLinkManagerPlugin.createHrefResolver(pluginID,
-                                                          href,
-                                                          locale);
-            return new CrossLinksResolvedInputStream(original, hrefResolver);
+            boolean first = !requested;
+            if (first) {
+                requested = true;
+                StartupTimeline.mark("first page requested");
+            }
+            long start = System.nanoTime();
+            InputStream in = null;
+            try {
+                in = getHtmlInputStream(pluginID, href, locale);
+                return in == null
+                       ? null
+                       : new PageTimingInputStream(in, System.nanoTime() - start);
+            } finally {
+                if (in == null) {
+                    CrossLinkMetrics.INSTANCE.recordPage(System.nanoTime() - start);
+                }
+                if (first) {
+                    StartupTimeline.mark("first page provided");
+                    StartupTimeline.finish();
+                }
+            }
         }
 
         // ... otherwise return the stream untransformed
-        return original;
+        return CrossLinkManagerPlugin.getStaticHelpContent().getInputStream(pluginID,
+                                                                            href,
+                                                                            locale);
+    }
+
+    private static InputStream getHtmlInputStream(String pluginID,
+                                                  String href,
+                                                  Locale locale) {
+        return getHtmlInputStream(CrossLinkManagerPlugin.getRenderedPageCache(),
+                                  CrossLinkManagerPlugin.getStaticHelpContent(),
+                                  pluginID,
+                                  href,
+                                  locale);
+    }
+
+    /**
+     * @param cache the cache of rendered pages or {@code null} if disabled
+     * @param content the static help content of which the pages are rendered
+     * @param pluginID the bundle symbolic name of the page
+     * @param href the path of the page inside the bundle
+     * @param locale the locale of the page (might be {@code null})
+     * @return the page with resolved cross links
+     */
+    static InputStream getHtmlInputStream(RenderedPageCache cache,
+                                          IStaticHelpContent content,
+                                          String pluginID,
+                                          String href,
+                                          Locale locale) {
+        if (cache == null) return getTransformedInputStream(content,
+                                                            pluginID,
+                                                            href,
+                                                            locale);
+
+        // cached?
+        String key = createKey(pluginID, href, locale);
+        byte[] page = cache.get(key);
+        try {
+            if (page != null) {
+                InputStream cached = new ByteArrayInputStream(page);
+                return cache.isGzipped()
+                       ? new GZIPInputStream(cached)
+                       : cached;
+            }
+
+            long generation = cache.getGeneration();
+            page = render(content, pluginID, href, locale);
+
+            // not found: not cached
+            if (page == null) return transform(null, pluginID, href, locale);
+
+            cache.put(key,
+                      cache.isGzipped() ? gzip(page) : page,
+                      generation);
+        } catch (IOException e) {
+
+            // not cached: streamed (and failing while read) like without cache
+            CrossLinkManagerPlugin.log("Failed to render "
+                                       + pluginID + '/' + href,
+                                       e);
+            return getTransformedInputStream(content, pluginID, href, locale);
+        }
+        return new ByteArrayInputStream(page);
+    }
+
+    /**
+     * Returns a gzip-compressed (X)HTML page with resolved cross links from
+     * the cache of rendered pages, e.g. to send it unchanged with the header
+     * {@code Content-Encoding: gzip} to clients which accept gzip-compressed
+     * content: if cached, the page is neither transformed nor compressed
+     * again.
+     *
+     * @param pluginID the bundle symbolic name of the page
+     * @param href the path of the page inside the bundle
+     * @param locale the locale of the page (might be {@code null})
+     * @return the gzip-compressed page (which must not be modified) or
+     *         {@code null} if the page is not an (X)HTML page, does not exist,
+     *         cannot be read or if the cache is not in gzip mode (system
+     *         property {@code net.sf.helpaddons.crosslinkmanager.pageCacheGzip})
+     */
+    public static byte[] getGzippedPage(String pluginID,
+                                        String href,
+                                        Locale locale) {
+        if (!hasHtmlFileExtension(href)) return null;
+        RenderedPageCache cache = CrossLinkManagerPlugin.getRenderedPageCache();
+        if (cache == null || !cache.isGzipped()) return null;
+
+        long start = System.nanoTime();
+        try {
+            return getGzippedPage(cache,
+                                  CrossLinkManagerPlugin.getStaticHelpContent(),
+                                  pluginID,
+                                  href,
+                                  locale);
+        } finally {
+            CrossLinkMetrics.INSTANCE.recordPage(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param cache the cache of rendered pages (in gzip mode)
+     * @param content the static help content of which the pages are rendered
+     * @param pluginID the bundle symbolic name of the page
+     * @param href the path of the page inside the bundle
+     * @param locale the locale of the page (might be {@code null})
+     * @return the gzip-compressed page or {@code null} if the page does not
+     *         exist or cannot be read
+     */
+    static byte[] getGzippedPage(RenderedPageCache cache,
+                                 IStaticHelpContent content,
+                                 String pluginID,
+                                 String href,
+                                 Locale locale) {
+        String key = createKey(pluginID, href, locale);
+        byte[] gzipped = cache.get(key);
+        if (gzipped != null) return gzipped;
+
+        long generation = cache.getGeneration();
+        try {
+            byte[] page = render(content, pluginID, href, locale);
+            if (page == null) return null;
+            gzipped = gzip(page);
+        } catch (IOException e) {
+            CrossLinkManagerPlugin.log("Failed to render "
+                                       + pluginID + '/' + href,
+                                       e);
+            return null;
+        }
+        cache.put(key, gzipped, generation);
+        return gzipped;
+    }
+
+    private static String createKey(String pluginID,
+                                    String href,
+                                    Locale locale) {
+        return RenderedPageCache.createKey(
+                pluginID,
+                removeQuery(href),
+                locale == null ? null : locale.toString());
+    }
+
+    /**
+     * @return the page with resolved cross links (from the disk page cache,
+     *         if enabled and cached there) or {@code null} if the page does
+     *         not exist
+     */
+    private static byte[] render(IStaticHelpContent content,
+                                 String pluginID,
+                                 String href,
+                                 Locale locale) throws IOException {
+        DiskPageCache diskCache = CrossLinkManagerPlugin.getDiskPageCache();
+        String diskKey = diskCache == null
+                         ? null
+                         : CrossLinkManagerPlugin.createDiskPageCacheKey(pluginID,
+                                                                         removeQuery(href),
+                                                                         locale);
+        if (diskKey != null) {
+            try {
+                byte[] cached = diskCache.get(diskKey);
+                if (cached != null) return cached;
+            } catch (RuntimeException e) {
+
+                // optional cache (e.g. not accessible): render the page
+                CrossLinkManagerPlugin.log("Failed to read the disk page cache", e);
+            }
+        }
+
+        InputStream original = content.getInputStream(pluginID, href, locale);
+        if (original == null) return null;
+        byte[] page = readFully(transform(original, pluginID, href, locale));
+        CrossLinkMetrics.INSTANCE.recordRenderedPage(page.length);
+        if (diskKey != null) {
+            try {
+                diskCache.put(diskKey, page);
+            } catch (RuntimeException e) {
+                CrossLinkManagerPlugin.log("Failed to write the disk page cache", e);
+            }
+        }
+        return page;
+    }
+
+    private static InputStream getTransformedInputStream(IStaticHelpContent content,
+                                                         String pluginID,
+                                                         String href,
+                                                         Locale locale) {
+        InputStream original = content.getInputStream(pluginID, href, locale);
+        return transform(original, pluginID, href, locale);
+    }
+
+    private static InputStream transform(InputStream original,
+                                         String pluginID,
+                                         String href,
+                                         Locale locale) {
+        IHrefResolver hrefResolver =
+            CrossLinkManagerPlugin.createHrefResolver(pluginID,
+                                                      href,
+                                                      locale);
+        return new CrossLinksResolvedInputStream(original, hrefResolver);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer);
+                 read >= 0;
+                 read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] page) throws IOException {
+        ByteArrayOutputStream compressed =
+            new ByteArrayOutputStream(page.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        try {
+            out.write(page);
+        } finally {
+            out.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Records the time to provide a page when it has been read completely or
+     * closed: the time to open the page plus the time spent in reading it,
+     * e.g. to resolve the cross links of a streamed page, but not the time in
+     * between the reads, e.g. to send the read bytes to the client.
+     */
+    private static class PageTimingInputStream extends FilterInputStream {
+
+        private long nanos;
+
+        private boolean recorded = false;
+
+        PageTimingInputStream(InputStream in, long openNanos) {
+            super(in);
+            nanos = openNanos;
+        }
+
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int result = super.read();
+            nanos += System.nanoTime() - start;
+            if (result < 0) {
+                record();
+            }
+            return result;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int result = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (result < 0) {
+                record();
+            }
+            return result;
+        }
+
+        public long skip(long n) throws IOException {
+            long start = System.nanoTime();
+            long result = super.skip(n);
+            nanos += System.nanoTime() - start;
+            return result;
+        }
+
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                record();
+            }
+        }
+
+        private void record() {
+            if (recorded) return;
+            recorded = true;
+            CrossLinkMetrics.INSTANCE.recordPage(nanos);
+        }
+
+    }
+
+    private static String removeQuery(String href) {
+        int queryDelimiterIndex = href.indexOf('?');
+        return queryDelimiterIndex < 0
+               ? href
+               : href.substring(0, queryDelimiterIndex);
     }
 
     /**
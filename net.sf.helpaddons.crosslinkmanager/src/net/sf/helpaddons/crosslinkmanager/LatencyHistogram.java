@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with exponential buckets: bucket {@code i} counts
+ * the durations which are less than 2<sup>i</sup> microseconds (and not less
+ * than 2<sup>i-1</sup> microseconds); the last bucket counts all longer
+ * durations. Like {@link StripedCounter} each thread records into one of
+ * several stripes to avoid contention.
+ */
+class LatencyHistogram {
+
+    /** The number of buckets. */
+    static final int BUCKETS = 32;
+
+    /** Per stripe: the buckets, the total nanoseconds and the maximum. */
+    private static final int SLOTS = BUCKETS + 2;
+
+    private static final int TOTAL = BUCKETS;
+
+    private static final int MAX = BUCKETS + 1;
+
+    private final AtomicLongArray slots =
+        new AtomicLongArray(StripedCounter.STRIPES * SLOTS);
+
+    /**
+     * @param nanos the duration to record in nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0) return; // System.nanoTime() is not always monotonic
+        int base = StripedCounter.stripe() * SLOTS;
+        long micros = nanos / 1000;
+        int bucket = micros == 0
+                     ? 0
+                     : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        slots.incrementAndGet(base + bucket);
+        slots.addAndGet(base + TOTAL, nanos);
+        for (long max = slots.get(base + MAX);
+             nanos > max && !slots.compareAndSet(base + MAX, max, nanos);
+             max = slots.get(base + MAX)) {
+            // retry
+        }
+    }
+
+    /** @return the number of recorded durations per bucket */
+    long[] getBuckets() {
+        long[] buckets = new long[BUCKETS];
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += slots.get(stripe * SLOTS + i);
+            }
+        }
+        return buckets;
+    }
+
+    /** @return the number of recorded durations */
+    long getCount() {
+        long count = 0;
+        for (long bucket : getBuckets()) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /** @return the sum of all recorded durations in nanoseconds */
+    long getTotalNanos() {
+        long total = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            total += slots.get(stripe * SLOTS + TOTAL);
+        }
+        return total;
+    }
+
+    /** @return the longest recorded duration in nanoseconds */
+    long getMaxNanos() {
+        long max = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            max = Math.max(max, slots.get(stripe * SLOTS + MAX));
+        }
+        return max;
+    }
+
+    void reset() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, 0);
+        }
+    }
+
+}
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * The cross links ({@code <!--a href="..."-->}) of the pages of pool bundles
+ * resolved in the same way as when the pages are shown: to find broken links
+ * without opening each page in the help system.
+ *
+ * The graph is computed by {@link #compute(PoolRegistry, IStaticHelpContent,
+ * Map, Locale, int)} one bundle per thread; the pages are streamed through
+ * {@link CrossLinksResolvedInputStream} and only the links are kept.
+ */
+public class LinkGraph {
+
+    private static final String HELP_TOPIC_PREFIX = "/help/topic/"; //$NON-NLS-1$
+
+    /** A cross link from a source page to a target page. */
+    public static final class Link {
+
+        private final String sourceBundle;
+        private final String sourcePage;
+        private final String href;
+        private final String targetBundle;
+        private final String targetPage;
+        private final String hrefPrefix;
+
+        private Link(String sourceBundle,
+                     String sourcePage,
+                     String href,
+                     String targetBundle,
+                     String targetPage,
+                     String hrefPrefix) {
+            this.sourceBundle = sourceBundle;
+            this.sourcePage = sourcePage;
+            this.href = href;
+            this.targetBundle = targetBundle;
+            this.targetPage = targetPage;
+            this.hrefPrefix = hrefPrefix;
+        }
+
+        /** @return the bundle symbolic name of the page containing the link */
+        public String getSourceBundle() {
+            return sourceBundle;
+        }
+
+        /** @return the path of the page containing the link */
+        public String getSourcePage() {
+            return sourcePage;
+        }
+
+        /** @return the unresolved link target, e.g. {@code "dir/topic.htm"} */
+        public String getHref() {
+            return href;
+        }
+
+        /**
+         * @return the bundle symbolic name of the link target or {@code null}
+         *         if the link could not be resolved
+         */
+        public String getTargetBundle() {
+            return targetBundle;
+        }
+
+        /**
+         * @return the path of the link target (without anchor and query)
+         *         or {@code null} if the link could not be resolved
+         */
+        public String getTargetPage() {
+            return targetPage;
+        }
+
+        /**
+         * @return the HTML cross-link "href" attribute value prefix which
+         *         selects the error page of an unresolved link or
+         *         {@code null} if there is no such prefix
+         */
+        public String getHrefPrefix() {
+            return hrefPrefix;
+        }
+
+        /**
+         * @return {@code true} if and only if the link target exists (the link
+         *         does not point to an error page)
+         */
+        public boolean isResolved() {
+            return targetBundle != null;
+        }
+
+        @Override
+        public String toString() {
+            return   sourceBundle + '/' + sourcePage + '\t' + href + '\t'
+                   + (isResolved() ? targetBundle + '/' + targetPage
+                                   : hrefPrefix == null
+                                     ? "unresolved" //$NON-NLS-1$
+                                     : "unresolved:" + hrefPrefix); //$NON-NLS-1$
+        }
+
+    }
+
+    private final int pageCount;
+
+    /** All links ordered by source bundle, source page and occurrence. */
+    private final List<Link> links;
+
+    /** "bundle/page" -> links of this page. */
+    private final Map<String, List<Link>> linksFrom =
+        new HashMap<String, List<Link>>();
+
+    /** "bundle/page" -> links to this page. */
+    private final Map<String, List<Link>> linksTo =
+        new HashMap<String, List<Link>>();
+
+    private final List<Link> unresolvedLinks = new ArrayList<Link>();
+
+    private LinkGraph(int pageCount, List<Link> links) {
+        this.pageCount = pageCount;
+        this.links = Collections.unmodifiableList(links);
+        for (Link link : links) {
+            add(linksFrom, link.sourceBundle + '/' + link.sourcePage, link);
+            if (link.isResolved()) {
+                add(linksTo, link.targetBundle + '/' + link.targetPage, link);
+            } else {
+                unresolvedLinks.add(link);
+            }
+        }
+    }
+
+    private static void add(Map<String, List<Link>> map, String key, Link link) {
+        List<Link> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Link>(4);
+            map.put(key, list);
+        }
+        list.add(link);
+    }
+
+    /**
+     * Computes the link graph of the specified pages.
+     *
+     * @param poolRegistry the pools to resolve the links with
+     * @param helpContent to open the pages
+     * @param pages bundle symbolic name -> paths of the pages of the bundle
+     *              (e.g. {@code "dir/topic.htm"})
+     * @param locale the locale of the pages (might be {@code null})
+     * @param threads the number of bundles to process concurrently
+     * @return the link graph
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              threads
+     */
+    public static LinkGraph compute(final PoolRegistry poolRegistry,
+                                    final IStaticHelpContent helpContent,
+                                    Map<String, ? extends Collection<String>> pages,
+                                    final Locale locale,
+                                    int threads) throws InterruptedException {
+        final ConcurrentMap<String, String> strings =
+            new ConcurrentHashMap<String, String>();
+        List<Future<List<Link>>> results =
+            new ArrayList<Future<List<Link>>>(pages.size());
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.max(1, threads));
+        int pageCount = 0;
+        try {
+            for (Map.Entry<String, ? extends Collection<String>> entry
+                    : pages.entrySet()) {
+                final String bundle = entry.getKey();
+                final Collection<String> bundlePages = entry.getValue();
+                pageCount += bundlePages.size();
+                results.add(executor.submit(new Callable<List<Link>>() {
+                    public List<Link> call() {
+                        return computeLinks(poolRegistry,
+                                            helpContent,
+                                            bundle,
+                                            bundlePages,
+                                            locale,
+                                            strings);
+                    }
+                }));
+            }
+            List<Link> links = new ArrayList<Link>();
+            for (Future<List<Link>> result : results) {
+                try {
+                    links.addAll(result.get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return new LinkGraph(pageCount, links);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Link> computeLinks(PoolRegistry poolRegistry,
+                                           IStaticHelpContent helpContent,
+                                           String bundle,
+                                           Collection<String> pages,
+                                           Locale locale,
+                                           ConcurrentMap<String, String> strings) {
+        List<Link> links = new ArrayList<Link>();
+        byte[] buffer = new byte[8192];
+        for (String page : pages) {
+            InputStream original =
+                helpContent.getInputStream(bundle, page, locale);
+            if (original == null) continue;
+            InputStream in = new CrossLinksResolvedInputStream(
+                    original,
+                    new LinkRecorder(poolRegistry.createHrefResolver(bundle,
+                                                                     page,
+                                                                     locale),
+                                     intern(strings, bundle),
+                                     intern(strings, page),
+                                     links,
+                                     strings));
+            try {
+                try {
+                    while (in.read(buffer) >= 0) {
+                        // only the links are of interest
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // unreadable page: links read so far are kept
+            }
+        }
+        return links;
+    }
+
+    private static String intern(ConcurrentMap<String, String> strings,
+                                 String string) {
+        if (string == null) return null;
+        String existing = strings.putIfAbsent(string, string);
+        return existing == null ? string : existing;
+    }
+
+    /** Records the links which are resolved while a page is read. */
+    private static class LinkRecorder implements IHrefResolver {
+
+        private final IHrefResolver delegate;
+        private final String sourceBundle;
+        private final String sourcePage;
+        private final List<Link> links;
+        private final ConcurrentMap<String, String> strings;
+
+        /** The last link which could not be resolved. */
+        private String unresolved;
+
+        private LinkRecorder(IHrefResolver delegate,
+                             String sourceBundle,
+                             String sourcePage,
+                             List<Link> links,
+                             ConcurrentMap<String, String> strings) {
+            this.delegate = delegate;
+            this.sourceBundle = sourceBundle;
+            this.sourcePage = sourcePage;
+            this.links = links;
+            this.strings = strings;
+        }
+
+        public String resolve(String href) {
+            String resolved = delegate.resolve(href);
+            if (resolved == null) {
+                unresolved = href;
+                return null;
+            }
+            unresolved = null;
+
+            // target: "bundle/page" without anchor and query
+            String target = resolved;
+            int end = target.length();
+            if (target.indexOf('#') >= 0) end = target.indexOf('#');
+            if (target.indexOf('?') >= 0) end = Math.min(end, target.indexOf('?'));
+            target = target.substring(0, end);
+            IPath targetPath;
+            if (target.startsWith(HELP_TOPIC_PREFIX)) {
+                targetPath = new Path(target.substring(HELP_TOPIC_PREFIX.length()));
+            } else {
+                targetPath = new Path(sourceBundle).append(sourcePage)
+                                                   .removeLastSegments(1)
+                                                   .append(target);
+            }
+            links.add(new Link(sourceBundle,
+                               sourcePage,
+                               intern(strings, href),
+                               intern(strings, targetPath.segment(0)),
+                               intern(strings, targetPath.removeFirstSegments(1)
+                                                         .toString()),
+                               null));
+            return resolved;
+        }
+
+        public String getNotFoundHref(String hrefPrefix) {
+            if (unresolved != null) {
+                links.add(new Link(sourceBundle,
+                                   sourcePage,
+                                   intern(strings, unresolved),
+                                   null,
+                                   null,
+                                   intern(strings, hrefPrefix)));
+                unresolved = null;
+            }
+            return delegate.getNotFoundHref(hrefPrefix);
+        }
+
+        public String getNotFoundClassName() {
+            return delegate.getNotFoundClassName();
+        }
+
+    }
+
+    /** @return the number of pages */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return all links ordered by source bundle, source page and occurrence
+     *         (unmodifiable)
+     */
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    /** @return the links which point to an error page (unmodifiable) */
+    public List<Link> getUnresolvedLinks() {
+        return Collections.unmodifiableList(unresolvedLinks);
+    }
+
+    /**
+     * @param bundle the bundle symbolic name of the source page
+     * @param page the path of the source page
+     * @return the links of the specified page (unmodifiable)
+     */
+    public List<Link> getLinksFrom(String bundle, String page) {
+        return get(linksFrom, bundle + '/' + page);
+    }
+
+    /**
+     * @param bundle the bundle symbolic name of the target page
+     * @param page the path of the target page (without anchor and query)
+     * @return the resolved links to the specified page (unmodifiable)
+     */
+    public List<Link> getLinksTo(String bundle, String page) {
+        return get(linksTo, bundle + '/' + page);
+    }
+
+    /**
+     * @param max the maximum number of pages to return
+     * @return the pages with the most resolved links to them as
+     *         {@code "bundle/page"}, most linked first (pages with the same
+     *         number of links in alphabetical order)
+     */
+    public List<String> getMostLinkedPages(int max) {
+        List<Map.Entry<String, List<Link>>> targets =
+            new ArrayList<Map.Entry<String, List<Link>>>(linksTo.entrySet());
+        Collections.sort(targets, new Comparator<Map.Entry<String, List<Link>>>() {
+            public int compare(Map.Entry<String, List<Link>> e1,
+                               Map.Entry<String, List<Link>> e2) {
+                int bySize = e2.getValue().size() - e1.getValue().size();
+                return bySize != 0 ? bySize : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        List<String> result =
+            new ArrayList<String>(Math.min(Math.max(max, 0), targets.size()));
+        for (int i = 0; i < targets.size() && i < max; i++) {
+            result.add(targets.get(i).getKey());
+        }
+        return result;
+    }
+
+    private static List<Link> get(Map<String, List<Link>> map, String key) {
+        List<Link> result = map.get(key);
+        return result == null
+               ? Collections.<Link>emptyList()
+               : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Writes a report: a summary line followed by one line per link
+     * (tab-separated: source page, link target, resolved target page or
+     * {@code unresolved[:prefix]}), unresolved links first.
+     *
+     * @param out the writer to write to
+     * @throws IOException if writing fails
+     */
+    public void writeReport(Writer out) throws IOException {
+        out.write("# " + pageCount + " pages, " + links.size() //$NON-NLS-1$ //$NON-NLS-2$
+                  + " links, " + unresolvedLinks.size() + " unresolved\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        for (Link link : unresolvedLinks) {
+            out.write(link.toString());
+            out.write('\n');
+        }
+        for (Link link : links) {
+            if (!link.isResolved()) continue;
+            out.write(link.toString());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        return   "LinkGraph(pages: " + pageCount //$NON-NLS-1$
+               + ", links: " + links.size() //$NON-NLS-1$
+               + ", unresolved: " + unresolvedLinks.size() + ')'; //$NON-NLS-1$
+    }
+
+}
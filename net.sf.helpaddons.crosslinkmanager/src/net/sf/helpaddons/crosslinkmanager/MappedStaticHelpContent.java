@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link IStaticHelpContent} implementation which memory-maps zip files (e.g.
+ * "doc.zip") instead of opening them via {@link java.util.zip.ZipFile}: the
+ * central directory of a zip file is read only once and the entries are read
+ * from the mapped memory. Stored (uncompressed) entries are served without
+ * copying them into the Java heap.
+ *
+ * Zip files which cannot be mapped (e.g. ZIP64 files or corrupt files) are
+ * opened like in the super class; a zip file is mapped (or tried to be mapped)
+ * again only if it has been modified (other modification time or length).
+ *
+ * This implementation is used as {@link IStaticHelpContent#DEFAULT} if the
+ * system property {@code net.sf.helpaddons.crosslinkmanager.mapZipFiles} is
+ * set to {@code true} (see {@link StaticHelpContent#INSTANCE}).
+ */
+class MappedStaticHelpContent extends StaticHelpContent {
+
+    /** Key -> mapped zip file. */
+    private final Map<String, Mapping> mappedZips =
+        new ConcurrentHashMap<String, Mapping>();
+
+    /** A zip file as mapped and its state when it was mapped. */
+    private static final class Mapping {
+
+        private final long lastModified;
+        private final long length;
+
+        /**
+         * The mapped zip file or {@code null} if the zip file cannot be
+         * mapped.
+         */
+        private final MappedZip zip;
+
+        private Mapping(long lastModified, long length, MappedZip zip) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.zip = zip;
+        }
+
+    }
+
+    @Override
+    InputStream openZipEntry(String key, File zip, String entryName)
+            throws IOException {
+        MappedZip mapped = getMappedZip(key, zip);
+        return mapped == null
+               ? super.openZipEntry(key, zip, entryName)
+               : mapped.getInputStream(entryName);
+    }
+
+    /**
+     * @param key the key of the zip file
+     * @param zip the zip file
+     * @return the mapped zip file or {@code null} if the zip file cannot be
+     *         mapped (e.g. ZIP64 file or corrupt file)
+     */
+    MappedZip getMappedZip(String key, File zip) {
+        long lastModified = zip.lastModified();
+        long length = zip.length();
+        Mapping mapping = mappedZips.get(key);
+        if (   mapping == null
+            || mapping.lastModified != lastModified
+            || mapping.length != length) {
+            MappedZip mapped;
+            try {
+                mapped = MappedZip.open(zip);
+            } catch (IOException e) {
+
+                // corrupt: the error is reported when opened like in the
+                // super class
+                mapped = null;
+            }
+            mapping = new Mapping(lastModified, length, mapped);
+            mappedZips.put(key, mapping);
+        }
+        return mapping.zip;
+    }
+
+    @Override
+    void flushZips(String keyPrefix) {
+        for (Iterator<String> i = mappedZips.keySet().iterator(); i.hasNext();) {
+            if (i.next().startsWith(keyPrefix)) {
+                i.remove();
+            }
+        }
+        super.flushZips(keyPrefix);
+    }
+
+}
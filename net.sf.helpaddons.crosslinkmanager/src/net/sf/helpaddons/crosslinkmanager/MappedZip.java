@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only, memory-mapped zip file: the central directory is parsed once
+ * into a table of entry names (sorted) and offsets, the content of an entry
+ * is read directly from the mapped memory without opening the file again.
+ *
+ * Only plain zip files are supported (no ZIP64, no encryption, only the
+ * compression methods "stored" and "deflated"): for other zip files
+ * {@link #open(File)} returns {@code null}.
+ *
+ * Note: a mapped file cannot be unmapped explicitly; it is unmapped when this
+ * object (and all streams opened from it) have been garbage collected.
+ */
+class MappedZip {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /** The mapped zip file (little-endian; only absolute reads allowed). */
+    private final ByteBuffer map;
+
+    /** The names of all (non-directory) entries, sorted. */
+    private final String[] names;
+
+    /** Offsets of the local headers (in the order of {@link #names}). */
+    private final int[] headerOffsets;
+
+    /** Compressed sizes (in the order of {@link #names}). */
+    private final int[] compressedSizes;
+
+    /** Uncompressed sizes (in the order of {@link #names}). */
+    private final int[] sizes;
+
+    /** {@code true} if deflated (in the order of {@link #names}). */
+    private final boolean[] deflated;
+
+    private MappedZip(ByteBuffer map,
+                      String[] names,
+                      int[] headerOffsets,
+                      int[] compressedSizes,
+                      int[] sizes,
+                      boolean[] deflated) {
+        this.map = map;
+        this.names = names;
+        this.headerOffsets = headerOffsets;
+        this.compressedSizes = compressedSizes;
+        this.sizes = sizes;
+        this.deflated = deflated;
+    }
+
+    /**
+     * @param zip the zip file to map
+     * @return the mapped zip file or {@code null} if the zip file is not
+     *         supported (e.g. because it is bigger than 2 GB or uses ZIP64)
+     * @throws IOException if the file cannot be read or is not a zip file
+     */
+    static MappedZip open(File zip) throws IOException {
+        ByteBuffer map;
+        RandomAccessFile file = new RandomAccessFile(zip, "r"); //$NON-NLS-1$
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) return null;
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+
+            // the mapping remains valid after the channel is closed
+            file.close();
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        return parse(map);
+    }
+
+    private static MappedZip parse(ByteBuffer map) throws IOException {
+
+        // "end of central directory" record
+        int end = map.limit() - END_SIZE;
+        int minEnd = Math.max(0, end - MAX_COMMENT_LENGTH);
+        while (end >= minEnd && map.getInt(end) != END_SIGNATURE) {
+            end--;
+        }
+        if (end < minEnd) throw new ZipException("Not a zip file"); //$NON-NLS-1$
+        int count = map.getShort(end + 10) & 0xFFFF;
+        long directorySize = map.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = map.getInt(end + 16) & 0xFFFFFFFFL;
+
+        // ZIP64
+        if (   count == 0xFFFF
+            || directoryOffset == 0xFFFFFFFFL
+            || directoryOffset + directorySize > end) return null;
+
+        // central directory
+        final String[] entryNames = new String[count];
+        int[] entryHeaderOffsets = new int[count];
+        int[] entryCompressedSizes = new int[count];
+        int[] entrySizes = new int[count];
+        boolean[] entryDeflated = new boolean[count];
+        int entries = 0;
+        int pos = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (   pos + CENTRAL_HEADER_SIZE > end
+                || map.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+                throw new ZipException("Invalid central directory"); //$NON-NLS-1$
+            int flags = map.getShort(pos + 8) & 0xFFFF;
+            int method = map.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = map.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = map.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = map.getShort(pos + 28) & 0xFFFF;
+            int extraLength = map.getShort(pos + 30) & 0xFFFF;
+            int commentLength = map.getShort(pos + 32) & 0xFFFF;
+            long headerOffset = map.getInt(pos + 42) & 0xFFFFFFFFL;
+            String name = readName(map, pos + CENTRAL_HEADER_SIZE, nameLength);
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            // skip directories
+            if (name.endsWith("/")) continue; //$NON-NLS-1$
+
+            // encrypted, ZIP64 or unknown compression method
+            if (   (flags & 1) != 0
+                || compressedSize >= Integer.MAX_VALUE
+                || size >= Integer.MAX_VALUE
+                || headerOffset >= Integer.MAX_VALUE
+                || (method != STORED && method != DEFLATED)) return null;
+
+            entryNames[entries] = name;
+            entryHeaderOffsets[entries] = (int) headerOffset;
+            entryCompressedSizes[entries] = (int) compressedSize;
+            entrySizes[entries] = (int) size;
+            entryDeflated[entries] = method == DEFLATED;
+            entries++;
+        }
+
+        // sort by name (for binary search)
+        Integer[] order = new Integer[entries];
+        for (int i = 0; i < entries; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return entryNames[a.intValue()].compareTo(entryNames[b.intValue()]);
+            }
+        });
+        String[] names = new String[entries];
+        int[] headerOffsets = new int[entries];
+        int[] compressedSizes = new int[entries];
+        int[] sizes = new int[entries];
+        boolean[] deflated = new boolean[entries];
+        int last = -1;
+        for (int i = 0; i < entries; i++) {
+            int from = order[i].intValue();
+
+            // duplicate names: like ZipFile, use the last one
+            if (last >= 0 && names[last].equals(entryNames[from])) {
+                last--;
+            }
+            last++;
+            names[last] = entryNames[from];
+            headerOffsets[last] = entryHeaderOffsets[from];
+            compressedSizes[last] = entryCompressedSizes[from];
+            sizes[last] = entrySizes[from];
+            deflated[last] = entryDeflated[from];
+        }
+        int size = last + 1;
+        if (size < entries) {
+            names = copy(names, size);
+            headerOffsets = copy(headerOffsets, size);
+            compressedSizes = copy(compressedSizes, size);
+            sizes = copy(sizes, size);
+            deflated = copy(deflated, size);
+        }
+        return new MappedZip(map,
+                             names,
+                             headerOffsets,
+                             compressedSizes,
+                             sizes,
+                             deflated);
+    }
+
+    /**
+     * @param name the name of the entry to open, e.g. "dir/a.htm"
+     * @return the content of the entry or {@code null} if the zip file does
+     *         not contain such an entry
+     * @throws IOException if the zip file is corrupt
+     */
+    InputStream getInputStream(String name) throws IOException {
+        int index = Arrays.binarySearch(names, name);
+        if (index < 0) return null;
+
+        // local header (its "extra field" may differ from the one in the
+        // central directory)
+        int header = headerOffsets[index];
+        if (   header + LOCAL_HEADER_SIZE > map.limit()
+            || map.getInt(header) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException("Invalid local header: " + name); //$NON-NLS-1$
+        int data =   header
+                   + LOCAL_HEADER_SIZE
+                   + (map.getShort(header + 26) & 0xFFFF)
+                   + (map.getShort(header + 28) & 0xFFFF);
+        int dataEnd = data + compressedSizes[index];
+        if (dataEnd < data || dataEnd > map.limit())
+            throw new ZipException("Invalid entry size: " + name); //$NON-NLS-1$
+
+        // a view of the entry data (the mapped memory is not copied)
+        ByteBuffer content = map.duplicate();
+        content.position(data);
+        content.limit(dataEnd);
+        InputStream in = new ByteBufferInputStream(content.slice());
+        return deflated[index]
+               ? new EntryInflaterInputStream(in,
+                                              compressedSizes[index],
+                                              sizes[index])
+               : in;
+    }
+
+    private static String readName(ByteBuffer map, int pos, int length)
+            throws ZipException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = map.get(pos + i);
+        }
+        try {
+
+            // like ZipFile (Java 5 and 6)
+            return new String(bytes, "UTF-8"); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // UTF-8 is always supported
+        }
+    }
+
+    private static String[] copy(String[] array, int length) {
+        String[] result = new String[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    private static int[] copy(int[] array, int length) {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    private static boolean[] copy(boolean[] array, int length) {
+        boolean[] result = new boolean[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Stream of the remaining bytes of a (non-shared) {@link ByteBuffer}.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+    /**
+     * Inflates raw ("nowrap") deflated data like the stream returned by
+     * {@code ZipFile.getInputStream(ZipEntry)}.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+
+        private final int size;
+        private int read = 0;
+        private boolean eof = false;
+        private boolean closed = false;
+
+        private EntryInflaterInputStream(InputStream in,
+                                         int compressedSize,
+                                         int size) {
+            super(in,
+                  new Inflater(true),
+                  Math.max(1, Math.min(compressedSize, 8192)));
+            this.size = size;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                read += count;
+            }
+            return count;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) throw new EOFException("Unexpected end of ZLIB input stream"); //$NON-NLS-1$
+            len = in.read(buf, 0, buf.length);
+
+            // "nowrap" requires an extra dummy byte (see Inflater(boolean))
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) return 0;
+            return Math.max(0, size - read);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            inf.end();
+            super.close();
+        }
+
+    }
+
+}
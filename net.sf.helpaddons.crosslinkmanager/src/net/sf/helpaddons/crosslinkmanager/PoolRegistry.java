@@ -1,85 +1,172 @@
 package net.sf.helpaddons.crosslinkmanager;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IExtension;
 
 public class PoolRegistry {
 
-    private final Map<String, List<String>> lookUpMap =
-        new HashMap<String, List<String>>();
+    /**
+     * The maximum number of memoized target bundles (if exceeded, all
+     * memoized target bundles are forgotten).
+     */
+    private static final int MAX_TARGET_BUNDLES = 100000;
 
-    private final Map<String, String> defaultErrorPages =
-        new HashMap<String, String>();
+    /** Marker for "not found in any other bundle of the pool". */
+    private static final String NO_TARGET_BUNDLE = new String();
 
-    private final Map<String, Map<String, String>> specificErrorPages =
-        new HashMap<String, Map<String, String>>();
+    /**
+     * The current state which is replaced as a whole (but never modified) so
+     * that readers do not have to lock and always see a consistent state;
+     * writers are synchronized.
+     */
+    private volatile Snapshot snapshot =
+        new Snapshot(Collections.<String, List<String>>emptyMap(),
+                     Collections.<String, String>emptyMap(),
+                     Collections.<String, Map<String, String>>emptyMap(),
+                     Collections.<String>emptySet(),
+                     IStaticHelpContent.DEFAULT);
 
-    private IStaticHelpContent helpContent =
-        IStaticHelpContent.DEFAULT;
+    /** Immutable state of the registry. */
+    private static class Snapshot {
 
-    private Set<String> allBundels = new HashSet<String>();
+        /** Bundle -> other bundles to look up (preferred bundles first). */
+        private final Map<String, List<String>> lookUpMap;
+
+        private final Map<String, String> defaultErrorPages;
+
+        private final Map<String, Map<String, String>> specificErrorPages;
+
+        private final Set<String> allBundels;
+
+        private final IStaticHelpContent helpContent;
+
+        /**
+         * (Source bundle, absolute href, locale) -> target bundle or
+         * {@link PoolRegistry#NO_TARGET_BUNDLE} (the only mutable part).
+         */
+        private final Map<LookUpKey, String> targetBundles =
+            new ConcurrentHashMap<LookUpKey, String>();
+
+        private Snapshot(Map<String, List<String>> lookUpMap,
+                         Map<String, String> defaultErrorPages,
+                         Map<String, Map<String, String>> specificErrorPages,
+                         Set<String> allBundels,
+                         IStaticHelpContent helpContent) {
+            this.lookUpMap = lookUpMap;
+            this.defaultErrorPages = defaultErrorPages;
+            this.specificErrorPages = specificErrorPages;
+            this.allBundels = allBundels;
+            this.helpContent = helpContent;
+        }
+
+        /**
+         * @return a copy of this snapshot with the specified help content and
+         *         without memoized target bundles
+         */
+        private Snapshot with(IStaticHelpContent newHelpContent) {
+            return new Snapshot(lookUpMap,
+                                defaultErrorPages,
+                                specificErrorPages,
+                                allBundels,
+                                newHelpContent);
+        }
+
+    }
 
     public void setHelpContentDelegate(IStaticHelpContent helpContent) {
-        this.helpContent = helpContent == null
-                           ? IStaticHelpContent.DEFAULT
-                           : helpContent;
+        synchronized (this) {
+            snapshot = snapshot.with(helpContent == null
+                                     ? IStaticHelpContent.DEFAULT
+                                     : helpContent);
+        }
     }
 
-    public void changed(Set<IExtension> contentPoolsExtensions) {
-        Map<String, String> tempDefaultErrorPages =
+    /**
+     * {@code false} if target bundles are looked up on each request (e.g. in
+     * development mode in which help content might be edited while running).
+     */
+    private volatile boolean memoizeTargetBundles = true;
+
+    /**
+     * @param memoize {@code true} to memoize target bundles (default),
+     *                {@code false} to look up target bundles on each request,
+     *                e.g. in development mode in which help content might be
+     *                added or removed while running
+     */
+    void setMemoizeTargetBundles(boolean memoize) {
+        memoizeTargetBundles = memoize;
+    }
+
+    /**
+     * Forgets all memoized target bundles, e.g. because a bundle has been
+     * updated and therefore might contain other resources.
+     */
+    void flushTargetBundles() {
+        synchronized (this) {
+            snapshot = snapshot.with(snapshot.helpContent);
+        }
+    }
+
+    /**
+     * The parsed extensions (in the order in which they have been added);
+     * only accessed by writers (synchronized).
+     */
+    private final Map<IExtension, Contribution> contributions =
+        new LinkedHashMap<IExtension, Contribution>();
+
+    /**
+     * Pool -> bundles of the pool (in the order of {@link #contributions});
+     * only accessed by writers (synchronized).
+     */
+    private Map<String, Set<String>> bundlesOfPool =
+        new LinkedHashMap<String, Set<String>>();
+
+    /** The "pool" and "errorPage" elements of a "contentPools" extension. */
+    private static class Contribution {
+
+        private final String bundle;
+
+        /** IDs of the pools to which the bundle belongs. */
+        private final List<String> pools = new ArrayList<String>();
+
+        /** "bundlesToPrefer" (in declaration order). */
+        private final List<String> bundlesToPrefer = new ArrayList<String>();
+
+        private String defaultErrorPage;
+
+        private final Map<String, String> specificErrorPages =
             new HashMap<String, String>();
-        Map<String, Map<String, String>> tempSpecifiErrorPages =
-            new HashMap<String, Map<String, String>>();
-
-        Map<String, List<String>> bundlesOfPool =
-            new HashMap<String, List<String>>();
-        Set<String> pools = new HashSet<String>();
-
-        Map<String, List<String>> preferredBundlesReverse =
-            new HashMap<String, List<String>>();
-        Set<String> allBundels = new HashSet<String>();
-        for (IExtension ext : contentPoolsExtensions) {
-            String bundleSymbolicName = ext.getNamespaceIdentifier();
+
+        private Contribution(IExtension ext) {
+            bundle = ext.getNamespaceIdentifier();
             IConfigurationElement[] childElements = ext.getConfigurationElements();
             for (IConfigurationElement element : childElements) {
                 if (!"pool".equals(element.getName())) continue;
 
-                allBundels.add(bundleSymbolicName);
-
-                String pool = element.getAttribute("id"); //$NON-NLS-1$
-                pools.add(pool);
-
-                // bundles of pool: pool -joins-> bundles
-                List<String> bundlesSet = bundlesOfPool.get(pool);
-                if (bundlesSet == null) {
-                    bundlesSet = new ArrayList<String>();
-                    bundlesOfPool.put(pool, bundlesSet);
-                }
-                bundlesSet.add(bundleSymbolicName);
+                pools.add(element.getAttribute("id")); //$NON-NLS-1$
 
                 // preferred bundles
-                String bundlesToPrefer =
+                String toPrefer =
                     element.getAttribute("bundlesToPrefer"); //$NON-NLS-1$
-                if (bundlesToPrefer != null) {
-                    List<String> preferredList =
-                        preferredBundlesReverse.get(bundleSymbolicName);
-                    if (preferredList == null) {
-                        preferredList = new ArrayList<String>();
-                        preferredBundlesReverse.put(bundleSymbolicName, preferredList);
-                    }
+                if (toPrefer != null) {
                     String[] splitted =
-                        bundlesToPrefer.split("\\s*,\\s*"); //$NON-NLS-1$
+                        toPrefer.split("\\s*,\\s*"); //$NON-NLS-1$
                     for (String string : splitted) {
-                        preferredList.add(0, string);
+                        bundlesToPrefer.add(string);
                     }
                 }
 
@@ -97,94 +184,263 @@ public class PoolRegistry {
 
                 // default error page
                 if (prefix == null) {
-                    tempDefaultErrorPages.put(bundleSymbolicName, href);
+                    defaultErrorPage = href;
                     continue;
                 }
 
                 // specific error page
-                Map<String, String> specifics =
-                    tempSpecifiErrorPages.get(bundleSymbolicName);
-                if (specifics == null) {
-                    specifics = new HashMap<String, String>();
-                    tempSpecifiErrorPages.put(bundleSymbolicName, specifics);
-                }
-                specifics.put(prefix, href);
+                specificErrorPages.put(prefix, href);
             }
         }
 
+    }
+
+    /**
+     * Rebuilds the whole registry.
+     *
+     * @param contentPoolsExtensions all "contentPools" extensions
+     */
+    public void changed(Set<IExtension> contentPoolsExtensions) {
+        synchronized (this) {
+            List<IExtension> removed =
+                new ArrayList<IExtension>(contributions.keySet());
+            changed(contentPoolsExtensions, removed);
+        }
+    }
+
+    /**
+     * Updates the registry: only the look-up lists of the bundles of pools
+     * to which added or removed extensions contribute and the error pages of
+     * the bundles of added or removed extensions are recomputed.
+     *
+     * @param added the added "contentPools" extensions
+     * @param removed the removed "contentPools" extensions
+     */
+    public void changed(Collection<IExtension> added,
+                        Collection<IExtension> removed) {
         synchronized (this) {
-            this.allBundels.clear();
-            this.allBundels.addAll(allBundels);
-            lookUpMap.clear();
-            for (String pool : pools) {
-                List<String> bundlesInSamePool = bundlesOfPool.get(pool);
-                for (String bundle : bundlesInSamePool) {
-
-                    // for this bundle does look-up already exist?
-                    List<String> bundleLookUp = lookUpMap.get(bundle);
-                    if (bundleLookUp == null) {
-                        bundleLookUp = new ArrayList<String>();
-                        lookUpMap.put(bundle, bundleLookUp);
-                    }
+            long start = System.nanoTime();
+
+            // bundles and pools which are affected by the changes
+            Set<String> changedBundles = new HashSet<String>();
+            Set<String> changedPools = new HashSet<String>();
+            for (IExtension ext : removed) {
+                Contribution contribution = contributions.remove(ext);
+                if (contribution == null) continue;
+                changedBundles.add(contribution.bundle);
+                changedPools.addAll(contribution.pools);
+            }
+            for (IExtension ext : added) {
+                Contribution contribution = new Contribution(ext);
+                Contribution replaced = contributions.put(ext, contribution);
+                if (replaced != null) {
+                    changedBundles.add(replaced.bundle);
+                    changedPools.addAll(replaced.pools);
+                }
+                changedBundles.add(contribution.bundle);
+                changedPools.addAll(contribution.pools);
+            }
+            if (changedBundles.isEmpty()) return;
+
+            // bundles of the changed pools before and after the changes
+            Set<String> affectedBundles = new HashSet<String>(changedBundles);
+            for (String pool : changedPools) {
+                Set<String> oldBundles = bundlesOfPool.get(pool);
+                if (oldBundles != null) {
+                    affectedBundles.addAll(oldBundles);
+                }
+            }
+            bundlesOfPool = computeBundlesOfPool();
+            for (String pool : changedPools) {
+                Set<String> newBundles = bundlesOfPool.get(pool);
+                if (newBundles != null) {
+                    affectedBundles.addAll(newBundles);
+                }
+            }
 
-                    // add all pool bundles except the bundle itself
-                    for (String otherBundle : bundlesInSamePool) {
-                        if (   !otherBundle.equals(bundle)
-                                && !bundleLookUp.contains(otherBundle)) {
-                            bundleLookUp.add(otherBundle);
-                        }
+            // per affected bundle: pools (in pool order), "bundlesToPrefer"
+            // and error pages
+            Map<String, List<String>> poolsOfBundle =
+                new HashMap<String, List<String>>();
+            for (Map.Entry<String, Set<String>> entry : bundlesOfPool.entrySet()) {
+                for (String bundle : entry.getValue()) {
+                    if (!affectedBundles.contains(bundle)) continue;
+                    List<String> pools = poolsOfBundle.get(bundle);
+                    if (pools == null) {
+                        pools = new ArrayList<String>();
+                        poolsOfBundle.put(bundle, pools);
                     }
+                    pools.add(entry.getKey());
+                }
+            }
+            Map<String, List<String>> preferredBundles =
+                new HashMap<String, List<String>>();
+            Map<String, String> defaultErrorPages =
+                new HashMap<String, String>(snapshot.defaultErrorPages);
+            Map<String, Map<String, String>> specificErrorPages =
+                new HashMap<String, Map<String, String>>(snapshot.specificErrorPages);
+            for (String bundle : changedBundles) {
+                defaultErrorPages.remove(bundle);
+                specificErrorPages.remove(bundle);
+            }
+            for (Contribution contribution : contributions.values()) {
+                String bundle = contribution.bundle;
+                if (affectedBundles.contains(bundle)) {
+                    List<String> preferred = preferredBundles.get(bundle);
+                    if (preferred == null) {
+                        preferred = new ArrayList<String>();
+                        preferredBundles.put(bundle, preferred);
+                    }
+                    preferred.addAll(contribution.bundlesToPrefer);
+                }
+                if (!changedBundles.contains(bundle)) continue;
+                if (contribution.defaultErrorPage != null) {
+                    defaultErrorPages.put(bundle, contribution.defaultErrorPage);
+                }
+                if (!contribution.specificErrorPages.isEmpty()) {
+                    Map<String, String> specifics = specificErrorPages.get(bundle);
+                    specifics = specifics == null
+                                ? new HashMap<String, String>()
+                                : new HashMap<String, String>(specifics);
+                    specifics.putAll(contribution.specificErrorPages);
+                    specificErrorPages.put(bundle,
+                                           Collections.unmodifiableMap(specifics));
+                }
+            }
 
+            // look-up lists of the affected bundles
+            Map<String, List<String>> lookUpMap =
+                new HashMap<String, List<String>>(snapshot.lookUpMap);
+            for (String bundle : affectedBundles) {
+                List<String> pools = poolsOfBundle.get(bundle);
+                if (pools == null) {
+                    lookUpMap.remove(bundle);
+                    continue;
                 }
+                lookUpMap.put(bundle,
+                              computeLookUpList(bundle,
+                                                pools,
+                                                preferredBundles.get(bundle)));
             }
 
-            // sort according to "bundlesToPrefer" attribute
-            for (Map.Entry<String, List<String>> entry : preferredBundlesReverse.entrySet()) {
+            Set<String> allBundels = new HashSet<String>();
+            for (Set<String> bundles : bundlesOfPool.values()) {
+                allBundels.addAll(bundles);
+            }
 
-                List<String> listToSort = lookUpMap.get(entry.getKey());
-                if (listToSort == null) continue;
+            snapshot = new Snapshot(Collections.unmodifiableMap(lookUpMap),
+                                    Collections.unmodifiableMap(defaultErrorPages),
+                                    Collections.unmodifiableMap(specificErrorPages),
+                                    Collections.unmodifiableSet(allBundels),
+                                    snapshot.helpContent);
+            CrossLinkMetrics.INSTANCE.recordPoolRegistryRebuild(System.nanoTime() - start);
+        }
+    }
 
-                for (String toPrefer : entry.getValue()) {
-                    if (!listToSort.contains(toPrefer)) continue;
-                    listToSort.remove(toPrefer);
-                    listToSort.add(0, toPrefer);
+    /**
+     * @return pool -> bundles of the pool (pools and bundles in the order of
+     *         {@link #contributions})
+     */
+    private Map<String, Set<String>> computeBundlesOfPool() {
+        Map<String, Set<String>> result =
+            new LinkedHashMap<String, Set<String>>();
+        for (Contribution contribution : contributions.values()) {
+            for (String pool : contribution.pools) {
+                Set<String> bundles = result.get(pool);
+                if (bundles == null) {
+                    bundles = new LinkedHashSet<String>();
+                    result.put(pool, bundles);
                 }
+                bundles.add(contribution.bundle);
             }
-
-            // error pages
-            defaultErrorPages.clear();
-            defaultErrorPages.putAll(tempDefaultErrorPages);
-            specificErrorPages.clear();
-            specificErrorPages.putAll(tempSpecifiErrorPages);
         }
+        return result;
+    }
 
+    /**
+     * @param bundle the bundle for which the look-up list is to be computed
+     * @param pools the pools of the bundle
+     * @param bundlesToPrefer the bundles to prefer (the first one is the
+     *                        most preferred one) or {@code null}
+     * @return all bundles which are in at least one same pool as the
+     *         specified bundle (except the bundle itself): the preferred
+     *         bundles first, then in the order of the pools
+     */
+    private List<String> computeLookUpList(String bundle,
+                                           List<String> pools,
+                                           List<String> bundlesToPrefer) {
+        Set<String> lookUp = new LinkedHashSet<String>();
+        for (String pool : pools) {
+            lookUp.addAll(bundlesOfPool.get(pool));
+        }
+        lookUp.remove(bundle);
+
+        // sort according to "bundlesToPrefer" attribute
+        List<String> result = new ArrayList<String>(lookUp.size());
+        if (bundlesToPrefer != null) {
+            for (String toPrefer : bundlesToPrefer) {
+                if (lookUp.remove(toPrefer)) {
+                    result.add(toPrefer);
+                }
+            }
+        }
+        result.addAll(lookUp);
+        return Collections.unmodifiableList(result);
     }
 
     public IHrefResolver createHrefResolver(String sourceBundle,
                                             String sourceHref,
                                             Locale locale) {
-        List<String> lookUpList;
-        synchronized (this) {
-            lookUpList = lookUpMap.get(sourceBundle);
-        }
+        Snapshot current = snapshot;
+        List<String> lookUpList = current.lookUpMap.get(sourceBundle);
         if (lookUpList == null) {
             lookUpList = Collections.emptyList();
         }
 
-        String errorPage = defaultErrorPages.get(sourceBundle);
+        String errorPage = current.defaultErrorPages.get(sourceBundle);
         return new MyHrefResolver(sourceBundle,
                                   sourceHref,
                                   locale,
                                   errorPage == null ? "error404.htm" : errorPage,
-                                  specificErrorPages.get(sourceBundle),
+                                  current.specificErrorPages.get(sourceBundle),
                                   lookUpList,
-                                  helpContent);
+                                  current.helpContent,
+                                  memoizeTargetBundles
+                                  ? current.targetBundles
+                                  : null);
     }
 
     public boolean isPoolBundle(String bundleSymbolicName) {
-        synchronized (this) {
-            return allBundels.contains(bundleSymbolicName);
+        return snapshot.allBundels.contains(bundleSymbolicName);
+    }
+
+    /**
+     * @return the symbolic names of all bundles which are members of at least
+     *         one pool (unmodifiable)
+     */
+    public Set<String> getPoolBundles() {
+        return snapshot.allBundels;
+    }
+
+    /**
+     * @return a description of the current pools (bundles to look up and
+     *         error pages) which does not depend on the order in which the
+     *         contributions have been added, e.g. to be hashed to detect
+     *         whether cross links resolved with another configuration can be
+     *         reused
+     */
+    String getConfigurationDescription() {
+        Snapshot current = snapshot;
+        StringBuilder description = new StringBuilder();
+        description.append(new TreeMap<String, List<String>>(current.lookUpMap));
+        description.append('\n');
+        description.append(new TreeMap<String, String>(current.defaultErrorPages));
+        for (Map.Entry<String, Map<String, String>> entry
+                 : new TreeMap<String, Map<String, String>>(current.specificErrorPages).entrySet()) {
+            description.append('\n').append(entry.getKey());
+            description.append(new TreeMap<String, String>(entry.getValue()));
         }
+        return description.toString();
     }
 
     private static class MyHrefResolver extends AbstractHrefResolver {
@@ -196,13 +452,17 @@ public class PoolRegistry {
         private final List<String> lookUpList;
         private final IStaticHelpContent helpContent;
 
+        /** The memoized target bundles or {@code null} to not memoize. */
+        private final Map<LookUpKey, String> targetBundles;
+
         public MyHrefResolver(String sourceBundle,
                               String sourceHref,
                               Locale locale,
                               String defaultErrorPage,
                               Map<String, String> errorPages,
                               List<String> lookUpList,
-                              IStaticHelpContent helpContent) {
+                              IStaticHelpContent helpContent,
+                              Map<LookUpKey, String> targetBundles) {
             super(sourceHref);
             this.sourceBundle = sourceBundle;
             this.locale = locale;
@@ -210,6 +470,7 @@ public class PoolRegistry {
             this.errorPages = errorPages;
             this.lookUpList = lookUpList;
             this.helpContent = helpContent;
+            this.targetBundles = targetBundles;
         }
 
         @Override
@@ -219,12 +480,29 @@ public class PoolRegistry {
 
         @Override
         protected String computeTargetBundle(String href) {
+            if (targetBundles == null) {
+                String targetBundle = lookUpTargetBundle(href);
+                return targetBundle == NO_TARGET_BUNDLE ? null : targetBundle;
+            }
+            LookUpKey key = new LookUpKey(sourceBundle, href, locale);
+            String targetBundle = targetBundles.get(key);
+            if (targetBundle == null) {
+                targetBundle = lookUpTargetBundle(href);
+                if (targetBundles.size() >= MAX_TARGET_BUNDLES) {
+                    targetBundles.clear();
+                }
+                targetBundles.put(key, targetBundle);
+            }
+            return targetBundle == NO_TARGET_BUNDLE ? null : targetBundle;
+        }
+
+        private String lookUpTargetBundle(String href) {
             for (String bundle : lookUpList) {
                 if (helpContent.checkExists(bundle, href, locale)) {
                     return bundle;
                 }
             }
-            return null;
+            return NO_TARGET_BUNDLE;
         }
 
         @Override
@@ -242,4 +520,38 @@ public class PoolRegistry {
 
     }
 
+    private static class LookUpKey {
+
+        private final String sourceBundle;
+        private final String href;
+        private final Locale locale;
+        private final int hashCode;
+
+        private LookUpKey(String sourceBundle, String href, Locale locale) {
+            this.sourceBundle = sourceBundle;
+            this.href = href;
+            this.locale = locale;
+            hashCode =   (sourceBundle.hashCode() * 31 + href.hashCode()) * 31
+                       + (locale == null ? 0 : locale.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof LookUpKey)) return false;
+            LookUpKey other = (LookUpKey) obj;
+            return    hashCode == other.hashCode
+                   && sourceBundle.equals(other.sourceBundle)
+                   && href.equals(other.href)
+                   && (locale == null ? other.locale == null
+                                      : locale.equals(other.locale));
+        }
+
+    }
+
 }
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of HTML pages with resolved cross links: the least recently
+ * used pages are evicted first if the total size of the cached pages exceeds
+ * the maximum size.
+ *
+ * To avoid caching pages which have been rendered with an outdated pool
+ * configuration, a page is only added if the cache has not been invalidated
+ * since the rendering of the page has been started (see
+ * {@link #getGeneration()}).
+ *
+ * In gzip mode (see {@link #isGzipped()}) the pages are stored gzip-compressed
+ * and the maximum size applies to the compressed pages.
+ */
+class RenderedPageCache {
+
+    /** The maximum total size of all cached pages in bytes. */
+    private final long maxSize;
+
+    /** {@code true} if the pages are stored gzip-compressed. */
+    private final boolean gzipped;
+
+    /** Key -> page (in access order). */
+    private final Map<String, byte[]> pages =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /** The total size of all cached pages in bytes. */
+    private long size = 0;
+
+    /** Incremented each time the cache is invalidated. */
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum total size of all cached pages in bytes
+     * @param gzipped {@code true} if the pages are stored gzip-compressed
+     */
+    RenderedPageCache(long maxSize, boolean gzipped) {
+        this.maxSize = maxSize;
+        this.gzipped = gzipped;
+    }
+
+    /**
+     * @param pluginID the bundle symbolic name of the page
+     * @param hrefWithoutQuery the path of the page inside the bundle
+     * @param locale the locale of the page (might be {@code null})
+     * @return the key of the page to be used for {@link #get(String)} and
+     *         {@link #put(String, byte[], long)}
+     */
+    static String createKey(String pluginID,
+                            String hrefWithoutQuery,
+                            String locale) {
+        return locale + ':' + pluginID + '/' + hrefWithoutQuery;
+    }
+
+    /**
+     * @param key the key of the page (see
+     *            {@link #createKey(String, String, String)})
+     * @return the cached page (which must not be modified) or {@code null}
+     *         if the page is not cached
+     */
+    byte[] get(String key) {
+        byte[] page;
+        synchronized (this) {
+            page = pages.get(key);
+        }
+        (page == null ? misses : hits).incrementAndGet();
+        return page;
+    }
+
+    /**
+     * @return {@code true} if the pages are stored (and have to be added)
+     *         gzip-compressed, otherwise {@code false}
+     */
+    boolean isGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @return the current generation which has to be retrieved before the
+     *         rendering of a page to add is started
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Adds a page (unless the page is too big or the cache has been
+     * invalidated in the meantime).
+     *
+     * @param key the key of the page (see
+     *            {@link #createKey(String, String, String)})
+     * @param page the page to add (which must not be modified afterwards);
+     *             in gzip mode the gzip-compressed page
+     * @param pageGeneration the generation retrieved before the rendering of
+     *                       the page has been started
+     */
+    synchronized void put(String key, byte[] page, long pageGeneration) {
+        if (pageGeneration != generation || page.length > maxSize) return;
+        byte[] replaced = pages.put(key, page);
+        size += page.length - (replaced == null ? 0 : replaced.length);
+
+        // evict least recently used
+        for (Iterator<byte[]> i = pages.values().iterator();
+             size > maxSize && i.hasNext();) {
+            byte[] eldest = i.next();
+            if (eldest == page) continue;
+            i.remove();
+            size -= eldest.length;
+        }
+    }
+
+    /** Removes all pages, e.g. because the pool configuration has changed. */
+    synchronized void invalidate() {
+        generation++;
+        pages.clear();
+        size = 0;
+    }
+
+    /** @return the number of requests of cached pages */
+    long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of requests of not cached pages */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /** @return the number of currently cached pages */
+    synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return the total size of all currently cached pages in bytes (in gzip
+     *         mode: the compressed size)
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderedPageCache[pages=" + getPageCount() //$NON-NLS-1$
+               + ", size=" + getSize() //$NON-NLS-1$
+               + ", gzipped=" + gzipped //$NON-NLS-1$
+               + ", hits=" + getHits() //$NON-NLS-1$
+               + ", misses=" + getMisses() + ']'; //$NON-NLS-1$
+    }
+
+}
@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * The paths of all resources of a bundle: the files of the bundle (including
+ * the files of its fragments) and the entries of its zip files (e.g.
+ * "doc.zip", "nl/de/doc.zip"). The files are listed once when the index is
+ * created; the entries of a zip file are listed on first request.
+ *
+ * An index can be written to and read from a binary stream (see
+ * {@link #write(DataOutput)}, {@link #read(DataInput)} and
+ * {@link ResourceIndexStore}).
+ */
+class ResourceIndex {
+
+    /** The bundle symbolic name. */
+    private final String symbolicName;
+
+    /** The bundle version ("Bundle-Version" header) or "". */
+    private final String version;
+
+    private final long lastModified;
+
+    /**
+     * The fingerprint of the directories of the bundle and its fragments or
+     * {@code 0} if not installed as directories (see
+     * {@link #computeFingerprint(Bundle)}).
+     */
+    private final long fingerprint;
+
+    /** Paths of all files relative to the bundle root, e.g. "nl/de/a.htm". */
+    private final Set<String> files;
+
+    /**
+     * The {@link #files} in lower case (created on first use), see
+     * {@link #containsFileIgnoringCase(String)}.
+     */
+    private volatile Set<String> lowerCaseFiles;
+
+    /** Zip path (relative to the bundle root) -> entries of the zip file. */
+    private final Map<String, ZipEntries> zips =
+        new ConcurrentHashMap<String, ZipEntries>();
+
+    /** The paths of the entries of a zip file and the state of the file. */
+    private static final class ZipEntries {
+
+        private final long lastModified;
+        private final long length;
+        private final Set<String> entries;
+
+        /**
+         * {@code false} if read from a stream and not yet compared with the
+         * zip file.
+         */
+        private volatile boolean validated;
+
+        private ZipEntries(long lastModified,
+                           long length,
+                           Set<String> entries,
+                           boolean validated) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.entries = entries;
+            this.validated = validated;
+        }
+
+    }
+
+    private ResourceIndex(String symbolicName,
+                          String version,
+                          long lastModified,
+                          long fingerprint,
+                          Set<String> files) {
+        this.symbolicName = symbolicName;
+        this.version = version;
+        this.lastModified = lastModified;
+        this.fingerprint = fingerprint;
+        this.files = files;
+    }
+
+    /**
+     * @param bundle the bundle to index
+     * @return the index of the files of the specified bundle and its
+     *         fragments
+     */
+    static ResourceIndex create(Bundle bundle) {
+        long lastModified = bundle.getLastModified();
+        long fingerprint = computeFingerprint(bundle);
+        Set<String> files = new HashSet<String>();
+        Enumeration<?> entries = bundle.findEntries("/", "*", true); //$NON-NLS-1$ //$NON-NLS-2$
+        if (entries != null) {
+            while (entries.hasMoreElements()) {
+                String path = ((URL) entries.nextElement()).getPath();
+
+                // skip directories
+                if (path.endsWith("/")) continue; //$NON-NLS-1$
+
+                files.add(path.startsWith("/") ? path.substring(1) : path); //$NON-NLS-1$
+            }
+        }
+        return new ResourceIndex(bundle.getSymbolicName(),
+                                 getVersion(bundle),
+                                 lastModified,
+                                 fingerprint,
+                                 files);
+    }
+
+    /**
+     * @param bundle the bundle
+     * @return the (not localized) version of the bundle or an empty string
+     *         if the bundle has no version
+     */
+    static String getVersion(Bundle bundle) {
+        Object version = bundle.getHeaders("").get(Constants.BUNDLE_VERSION); //$NON-NLS-1$
+        return version == null ? "" : version.toString(); //$NON-NLS-1$
+    }
+
+    /**
+     * The files of a bundle installed as directory (e.g. "plugins/my.doc_1.0/")
+     * can be changed without changing the modification time of the bundle,
+     * e.g. while the application is not running. Such changes are detected by
+     * the number and the latest modification time of the files and
+     * directories of the bundle and its fragments. Because this requires to
+     * walk through all directories, persisted indexes are checked only once
+     * per run (see {@link #isIndexOf(Bundle)}).
+     *
+     * @param bundle the bundle
+     * @return the fingerprint of the directories of the bundle and its
+     *         fragments or {@code 0} if neither the bundle nor one of its
+     *         fragments is installed as directory
+     */
+    static long computeFingerprint(Bundle bundle) {
+        long[] countAndLastModified = new long[2];
+        addToFingerprint(bundle, countAndLastModified);
+        if (Platform.isRunning()) {
+            Bundle[] fragments = Platform.getFragments(bundle);
+            if (fragments != null) {
+                for (Bundle fragment : fragments) {
+                    addToFingerprint(fragment, countAndLastModified);
+                }
+            }
+        }
+        return countAndLastModified[0] == 0
+               ? 0
+               : 31 * countAndLastModified[1] + countAndLastModified[0];
+    }
+
+    private static void addToFingerprint(Bundle bundle,
+                                         long[] countAndLastModified) {
+        URL root = bundle.getEntry("/"); //$NON-NLS-1$
+        if (root == null) return;
+        try {
+            URL resolved = FileLocator.resolve(root);
+            if (!"file".equals(resolved.getProtocol())) return; //$NON-NLS-1$
+            File dir = new File(resolved.getPath());
+            if (!dir.isDirectory()) return;
+            countAndLastModified[0]++;
+            countAndLastModified[1] = Math.max(countAndLastModified[1],
+                                               dir.lastModified());
+            addToFingerprint(dir, countAndLastModified);
+        } catch (IOException e) {
+            // not resolvable: not installed as directory
+        }
+    }
+
+    private static void addToFingerprint(File dir,
+                                         long[] countAndLastModified) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            countAndLastModified[0]++;
+            countAndLastModified[1] = Math.max(countAndLastModified[1],
+                                               file.lastModified());
+            if (file.isDirectory()) {
+                addToFingerprint(file, countAndLastModified);
+            }
+        }
+    }
+
+    /**
+     * @param bundle the bundle of this index
+     * @return {@code false} if the bundle has been modified since this index
+     *         was created (for bundles installed as directories only changes
+     *         of the modification time of the bundle are detected, see
+     *         {@link #isIndexOf(Bundle)})
+     */
+    boolean isUpToDate(Bundle bundle) {
+        return bundle.getLastModified() == lastModified;
+    }
+
+    /**
+     * @param bundle the bundle to check
+     * @return {@code true} if and only if this index has been created for the
+     *         specified bundle (same symbolic name and version) and neither the
+     *         bundle nor its directories (see
+     *         {@link #computeFingerprint(Bundle)}) have been modified since
+     *         then
+     */
+    boolean isIndexOf(Bundle bundle) {
+        return    symbolicName.equals(bundle.getSymbolicName())
+               && version.equals(getVersion(bundle))
+               && isUpToDate(bundle)
+               && fingerprint == computeFingerprint(bundle);
+    }
+
+    /** @return the symbolic name of the indexed bundle */
+    String getSymbolicName() {
+        return symbolicName;
+    }
+
+    /**
+     * @param path the path relative to the bundle root, e.g. "nl/de/a.htm"
+     * @return {@code true} if and only if the bundle or one of its fragments
+     *         contains the specified file
+     */
+    boolean containsFile(String path) {
+        return files.contains(path);
+    }
+
+    /**
+     * On case-insensitive file systems (e.g. on Windows) a file of an
+     * unpacked bundle can be opened even if the case of the path differs
+     * which {@link #containsFile(String)} does not take into account.
+     *
+     * @param path the path relative to the bundle root, e.g. "nl/de/a.htm"
+     * @return {@code true} if and only if the bundle or one of its fragments
+     *         contains the specified file ignoring the case
+     */
+    boolean containsFileIgnoringCase(String path) {
+        Set<String> lowerCase = lowerCaseFiles;
+        if (lowerCase == null) {
+            lowerCase = new HashSet<String>(files.size() * 4 / 3 + 1);
+            for (String file : files) {
+                lowerCase.add(file.toLowerCase(Locale.ENGLISH));
+            }
+            lowerCaseFiles = lowerCase;
+        }
+        return lowerCase.contains(path.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @param zipPath the path of the zip file relative to the bundle root
+     * @param zip the zip file on the file system
+     * @param entry the path of the entry inside the zip file
+     * @return {@code true} if and only if the zip file contains the specified
+     *         entry
+     */
+    boolean containsZipEntry(String zipPath, File zip, String entry) {
+        return getZipEntries(zipPath, zip).contains(entry);
+    }
+
+    /**
+     * @return the paths of all files relative to the bundle root
+     *         (unmodifiable)
+     */
+    Set<String> getFiles() {
+        return Collections.unmodifiableSet(files);
+    }
+
+    /**
+     * @param zipPath the path of the zip file relative to the bundle root
+     * @param zip the zip file on the file system
+     * @return the paths of all entries (except directories) of the zip file
+     *         or an empty set if the zip file cannot be read (not cached, e.g.
+     *         because the zip file is still being copied)
+     */
+    Set<String> getZipEntries(String zipPath, File zip) {
+        ZipEntries entries = zips.get(zipPath);
+        if (entries != null && !entries.validated) {
+            if (   entries.lastModified == zip.lastModified()
+                && entries.length == zip.length()) {
+                entries.validated = true;
+            } else {
+                entries = null;
+            }
+        }
+        if (entries == null) {
+            entries = readZipEntries(zip);
+            if (entries == null) {
+                zips.remove(zipPath);
+                return Collections.emptySet();
+            }
+            zips.put(zipPath, entries);
+        }
+        return entries.entries;
+    }
+
+    /**
+     * @return the entries or {@code null} if the zip file cannot be read
+     */
+    private static ZipEntries readZipEntries(File zip) {
+        long lastModified = zip.lastModified();
+        long length = zip.length();
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(zip);
+            Set<String> result = new HashSet<String>();
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                 entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    result.add(entry.getName());
+                }
+            }
+            return new ZipEntries(lastModified, length, result, true);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (zipFile != null) {
+                try {
+                    zipFile.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes this index (including the entries of the zip files listed so
+     * far) to the specified stream.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(symbolicName);
+        out.writeUTF(version);
+        out.writeLong(lastModified);
+        out.writeLong(fingerprint);
+        writePaths(out, files);
+        out.writeInt(zips.size());
+        for (Map.Entry<String, ZipEntries> zip : zips.entrySet()) {
+            out.writeUTF(zip.getKey());
+            out.writeLong(zip.getValue().lastModified);
+            out.writeLong(zip.getValue().length);
+            writePaths(out, zip.getValue().entries);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutput)}; the entries of
+     * the zip files are compared with the zip files on first use.
+     *
+     * @param in the stream to read from
+     * @return the index read
+     * @throws IOException if reading fails
+     */
+    static ResourceIndex read(DataInput in) throws IOException {
+        ResourceIndex index = new ResourceIndex(in.readUTF(),
+                                                in.readUTF(),
+                                                in.readLong(),
+                                                in.readLong(),
+                                                readPaths(in));
+        for (int i = in.readInt(); i > 0; i--) {
+            String zipPath = in.readUTF();
+            index.zips.put(zipPath, new ZipEntries(in.readLong(),
+                                                   in.readLong(),
+                                                   readPaths(in),
+                                                   false));
+        }
+        return index;
+    }
+
+    /**
+     * Writes the paths sorted and front-coded: per path the length of the
+     * prefix shared with the previous path and the rest of the path.
+     */
+    private static void writePaths(DataOutput out, Collection<String> paths)
+            throws IOException {
+        List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted);
+        out.writeInt(sorted.size());
+        String previous = ""; //$NON-NLS-1$
+        for (String path : sorted) {
+            int shared = 0;
+            int max = Math.min(Math.min(previous.length(), path.length()),
+                               0xFFFF);
+            while (shared < max && previous.charAt(shared) == path.charAt(shared)) {
+                shared++;
+            }
+            out.writeShort(shared);
+            out.writeUTF(path.substring(shared));
+            previous = path;
+        }
+    }
+
+    private static Set<String> readPaths(DataInput in) throws IOException {
+        int size = in.readInt();
+        Set<String> paths = new HashSet<String>(size * 4 / 3 + 1);
+        String previous = ""; //$NON-NLS-1$
+        for (int i = 0; i < size; i++) {
+            int shared = in.readUnsignedShort();
+            String path = previous.substring(0, shared) + in.readUTF();
+            paths.add(path);
+            previous = path;
+        }
+        return paths;
+    }
+
+    /**
+     * @param href the HTML reference without query
+     * @return {@code false} if the specified HTML reference is not in the
+     *         normalized form which is required to look it up in the index
+     *         (e.g. "dir/../a.htm" or "dir\a.htm") and which therefore must be
+     *         checked by opening it
+     */
+    static boolean isIndexable(String href) {
+        return    href.length() > 0
+               && href.charAt(0) != '/'
+               && href.indexOf('\\') < 0
+               && href.indexOf('%') < 0
+               && href.indexOf("//") < 0 //$NON-NLS-1$
+               && href.indexOf("./") < 0 //$NON-NLS-1$
+               && !href.endsWith("."); //$NON-NLS-1$
+    }
+
+    /**
+     * @param href the HTML reference without query
+     * @return the HTML reference without the anchor part ("#...")
+     */
+    static String removeAnchor(String href) {
+        int anchorIndex = href.indexOf('#');
+        return anchorIndex < 0 ? href : href.substring(0, anchorIndex);
+    }
+
+}
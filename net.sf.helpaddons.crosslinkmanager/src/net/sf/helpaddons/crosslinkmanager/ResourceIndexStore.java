@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * The {@link ResourceIndex}es of the last run persisted in the binary file
+ * {@value #FILE_NAME} in the state location of this plug-in, e.g.
+ * {@code workspace/.metadata/.plugins/net.sf.helpaddons.crosslinkmanager/resource-index.bin},
+ * so that at startup only changed bundles have to be indexed again.
+ *
+ * The file is read once; the index of a bundle is decoded on first request
+ * and only used if the bundle symbolic name, the bundle version, the
+ * modification time of the bundle and, if installed as directory, the
+ * fingerprint of its directories (see
+ * {@link ResourceIndex#computeFingerprint(Bundle)}) are unchanged (the
+ * entries of a zip file are only used if the modification time and the size
+ * of the zip file are unchanged). The store can be disabled by setting the system property
+ * {@code net.sf.helpaddons.crosslinkmanager.persistResourceIndex} to
+ * {@code false}.
+ */
+class ResourceIndexStore {
+
+    static final String FILE_NAME = "resource-index.bin"; //$NON-NLS-1$
+
+    private static final String BUNDLE_ID =
+        "net.sf.helpaddons.crosslinkmanager"; //$NON-NLS-1$
+
+    /** The first bytes of the file: "CLMI". */
+    private static final int MAGIC = 0x434C4D49;
+
+    /** To be incremented on each incompatible change of the format. */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final boolean ENABLED =
+        !"false".equalsIgnoreCase(System.getProperty( //$NON-NLS-1$
+                "net.sf.helpaddons.crosslinkmanager.persistResourceIndex")); //$NON-NLS-1$
+
+    /** The store read at startup (created on first use). */
+    private static ResourceIndexStore instance;
+
+    /** Bundle symbolic name -> not yet decoded index. */
+    private final Map<String, byte[]> records;
+
+    private ResourceIndexStore(Map<String, byte[]> records) {
+        this.records = records;
+    }
+
+    /**
+     * @return the store read from the state location (empty if there is
+     *         no, an invalid or an outdated file or if not running inside
+     *         the platform)
+     */
+    static synchronized ResourceIndexStore getInstance() {
+        if (instance == null) {
+            File file = getFile();
+            Map<String, byte[]> records = null;
+            if (file != null && file.isFile()) {
+                try {
+                    records = read(file);
+                } catch (IOException e) {
+                    // invalid: ignore
+                }
+            }
+            instance = new ResourceIndexStore(records == null
+                                              ? new HashMap<String, byte[]>()
+                                              : records);
+        }
+        return instance;
+    }
+
+    private static File getFile() {
+        if (!ENABLED || !Platform.isRunning()) return null;
+        Bundle bundle = Platform.getBundle(BUNDLE_ID);
+        if (bundle == null) return null;
+        return new File(Platform.getStateLocation(bundle).toFile(), FILE_NAME);
+    }
+
+    /**
+     * @param bundle the bundle to get the index for
+     * @return the persisted index of the specified bundle or {@code null} if
+     *         there is no such index or if the bundle has been changed
+     */
+    ResourceIndex get(Bundle bundle) {
+        byte[] record;
+        synchronized (records) {
+            record = records.get(bundle.getSymbolicName());
+        }
+        if (record == null) return null;
+        try {
+            ResourceIndex index = ResourceIndex.read(
+                    new DataInputStream(new ByteArrayInputStream(record)));
+            return index.isIndexOf(bundle) ? index : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the specified indexes and the persisted indexes of other still
+     * installed bundles to the file in the state location (saving
+     * concurrently is serialized).
+     *
+     * @param indexes the current indexes
+     * @throws IOException if writing fails
+     */
+    synchronized void save(Collection<ResourceIndex> indexes)
+            throws IOException {
+        File file = getFile();
+        if (file == null) return;
+
+        Map<String, byte[]> toWrite = new HashMap<String, byte[]>();
+        synchronized (records) {
+            for (Map.Entry<String, byte[]> record : records.entrySet()) {
+                if (Platform.getBundle(record.getKey()) != null) {
+                    toWrite.put(record.getKey(), record.getValue());
+                }
+            }
+        }
+        for (ResourceIndex index : indexes) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(4096);
+            DataOutputStream out = new DataOutputStream(record);
+            index.write(out);
+            out.flush();
+            toWrite.put(index.getSymbolicName(), record.toByteArray());
+        }
+
+        // write to a temporary file which then replaces the file
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(FILE_NAME,
+                                       ".tmp", //$NON-NLS-1$
+                                       file.getParentFile());
+        try {
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),
+                                                              65536));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(toWrite.size());
+                for (Map.Entry<String, byte[]> record : toWrite.entrySet()) {
+                    out.writeUTF(record.getKey());
+                    out.writeInt(record.getValue().length);
+                    out.write(record.getValue());
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if ((!file.delete() && file.exists()) || !tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file); //$NON-NLS-1$
+        }
+        synchronized (records) {
+            records.clear();
+            records.putAll(toWrite);
+        }
+    }
+
+    private static Map<String, byte[]> read(File file) throws IOException {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                                                        65536));
+        try {
+            if (   in.readInt() != MAGIC
+                || in.readInt() != FORMAT_VERSION) return null;
+            int count = in.readInt();
+            Map<String, byte[]> result = new HashMap<String, byte[]>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String symbolicName = in.readUTF();
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                result.put(symbolicName, record);
+            }
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+}
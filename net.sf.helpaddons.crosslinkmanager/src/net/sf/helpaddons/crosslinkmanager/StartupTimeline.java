@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Timeline of the startup: the phases of the startup (e.g. of the help
+ * applications, of this plug-in and the first page request) with the time
+ * at which they have been reached in milliseconds since the start of the JVM.
+ *
+ * When the startup is finished (see {@link #finish()}), the timeline is
+ * appended to the file {@value #FILE_NAME} in the state location of this
+ * plug-in which keeps the timelines of the last startups (system property
+ * {@code net.sf.helpaddons.crosslinkmanager.startupTimelines}, default: 10;
+ * one line per startup: date followed by tab-separated
+ * {@code phase=milliseconds}). Phases reached after finishing are added to
+ * the persisted timeline. The file is written by a background thread which
+ * writes phases reached while writing together in one go. If the system
+ * property
+ * {@code net.sf.helpaddons.crosslinkmanager.printStartupTimeline} is set to
+ * {@code true}, a summary is printed to {@code System.out} when finished.
+ */
+public class StartupTimeline {
+
+    /** The name of the file in which the last timelines are persisted. */
+    public static final String FILE_NAME = "startup-timeline.txt"; //$NON-NLS-1$
+
+    private static final String BUNDLE_ID =
+        "net.sf.helpaddons.crosslinkmanager"; //$NON-NLS-1$
+
+    private static final int MAX_PERSISTED_TIMELINES =
+        Integer.getInteger("net.sf.helpaddons.crosslinkmanager.startupTimelines", //$NON-NLS-1$
+                           10).intValue();
+
+    private static final boolean PRINT =
+        Boolean.getBoolean("net.sf.helpaddons.crosslinkmanager.printStartupTimeline"); //$NON-NLS-1$
+
+    /** Phase -> milliseconds since the start of the JVM (in order). */
+    private static final Map<String, Long> phases =
+        new LinkedHashMap<String, Long>();
+
+    private static boolean finished = false;
+
+    /** {@code true} if there are phases which have not been persisted yet. */
+    private static boolean dirty = false;
+
+    /** {@code true} while the timeline is written by a background thread. */
+    private static boolean persisting = false;
+
+    /**
+     * The persisted timelines of previous startups (read when persisting the
+     * first time; accessed by the persisting thread only).
+     */
+    private static List<String> previousTimelines;
+
+    private StartupTimeline() {
+        // static methods only
+    }
+
+    /**
+     * Records that the specified phase has been reached now (unless the
+     * phase has already been recorded).
+     *
+     * @param phase the name of the phase (without tab and {@code '='}), e.g.
+     *              {@code "web app running"}
+     */
+    public static void mark(String phase) {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        synchronized (phases) {
+            if (phases.containsKey(phase)) return;
+            phases.put(phase, Long.valueOf(uptime));
+            if (finished) {
+                schedulePersist();
+            }
+        }
+    }
+
+    /**
+     * Finishes the startup: persists the timeline and prints the summary if
+     * requested (only the first call has an effect).
+     */
+    public static void finish() {
+        synchronized (phases) {
+            if (finished) return;
+            finished = true;
+            schedulePersist();
+            if (PRINT) {
+                System.out.print(getSummary());
+            }
+        }
+    }
+
+    /**
+     * @return the recorded phases, one per line: milliseconds since the start
+     *         of the JVM, milliseconds since the previous phase and the name
+     *         of the phase
+     */
+    public static String getSummary() {
+        StringBuilder summary = new StringBuilder("Startup timeline:\n"); //$NON-NLS-1$
+        synchronized (phases) {
+            long previous = 0;
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                long millis = phase.getValue().longValue();
+                summary.append(String.format("%8d ms (+%6d ms)  %s%n", //$NON-NLS-1$
+                                             Long.valueOf(millis),
+                                             Long.valueOf(millis - previous),
+                                             phase.getKey()));
+                previous = millis;
+            }
+        }
+        return summary.toString();
+    }
+
+    /** Must be called with the lock of {@link #phases}. */
+    private static void schedulePersist() {
+        if (MAX_PERSISTED_TIMELINES <= 0 || !Platform.isRunning()) return;
+        dirty = true;
+        if (persisting) return; // will be written by the running thread
+
+        // not a daemon thread to not lose the timeline when exiting normally
+        persisting = true;
+        Thread writer = new Thread("Startup Timeline Writer") { //$NON-NLS-1$
+            public void run() {
+                persistChanges();
+            }
+        };
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    private static void persistChanges() {
+        while (true) {
+            String line;
+            synchronized (phases) {
+                if (!dirty) {
+                    persisting = false;
+                    return;
+                }
+                dirty = false;
+                line = toLine();
+            }
+            try {
+                persist(line);
+            } catch (RuntimeException e) {
+
+                // e.g. no state location: keep on persisting later phases
+                CrossLinkManagerPlugin.log("Failed to persist the startup timeline", //$NON-NLS-1$
+                                           e);
+            }
+        }
+    }
+
+    /**
+     * @param line the current timeline to persist (replacing the line of the
+     *             current startup if already persisted)
+     */
+    private static void persist(String line) {
+        Bundle bundle = Platform.getBundle(BUNDLE_ID);
+        if (bundle == null) return; // not running inside the platform
+        try {
+            File file = new File(Platform.getStateLocation(bundle).toFile(),
+                                 FILE_NAME);
+            if (previousTimelines == null) {
+                previousTimelines = read(file);
+            }
+            file.getParentFile().mkdirs();
+
+            // write to a temporary file which then replaces the file so that
+            // the previous timelines are not lost if killed while writing
+            File tmp = File.createTempFile(FILE_NAME,
+                                           ".tmp", //$NON-NLS-1$
+                                           file.getParentFile());
+            try {
+                Writer out = new OutputStreamWriter(new FileOutputStream(tmp),
+                                                    "UTF-8"); //$NON-NLS-1$
+                try {
+                    for (String timeline : previousTimelines) {
+                        out.write(timeline);
+                        out.write('\n');
+                    }
+                    out.write(line);
+                    out.write('\n');
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                tmp.delete();
+                throw e;
+            }
+
+            // renaming replaces the file atomically except on Windows
+            if (   !tmp.renameTo(file)
+                && ((!file.delete() && file.exists()) || !tmp.renameTo(file))) {
+                tmp.delete();
+                throw new IOException("Cannot replace " + file); //$NON-NLS-1$
+            }
+        } catch (IOException e) {
+            // timeline is not essential
+            CrossLinkManagerPlugin.log("Failed to persist the startup timeline", //$NON-NLS-1$
+                                       e);
+        }
+    }
+
+    /**
+     * @return the last {@link #MAX_PERSISTED_TIMELINES}{@code - 1} timelines
+     *         of the specified file
+     */
+    private static List<String> read(File file) throws IOException {
+        List<String> result = new ArrayList<String>();
+        if (!file.exists()) return result;
+        BufferedReader in =
+            new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                                                     "UTF-8")); //$NON-NLS-1$
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.length() == 0) continue;
+                result.add(line);
+                if (result.size() >= MAX_PERSISTED_TIMELINES) {
+                    result.remove(0);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    /** Must be called with the lock of {@link #phases}. */
+    private static String toLine() {
+        Date start = new Date(ManagementFactory.getRuntimeMXBean().getStartTime());
+        StringBuilder line = new StringBuilder(
+                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(start)); //$NON-NLS-1$
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            line.append('\t')
+                .append(phase.getKey())
+                .append('=')
+                .append(phase.getValue());
+        }
+        return line.toString();
+    }
+
+}
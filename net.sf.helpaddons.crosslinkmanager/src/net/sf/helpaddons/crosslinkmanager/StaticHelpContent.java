@@ -0,0 +1,639 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *     Holger Voormann - parts of the
+ *                       org.eclipse.help.internal.util.ResourceLocator class
+ *                       copied to this new class; minor changes
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * The {@link IStaticHelpContent#DEFAULT} implementation.
+ *
+ * To check whether a resource exists the resource is not opened: instead a
+ * {@link ResourceIndex} per bundle is used which is built on first use (except
+ * in development mode in which help content might be edited while running).
+ */
+class StaticHelpContent implements IStaticHelpContent {
+
+    /**
+     * The instance to use: with memory-mapped zip files (see
+     * {@link MappedStaticHelpContent}) if the system property
+     * {@code net.sf.helpaddons.crosslinkmanager.mapZipFiles} is set to
+     * {@code true}.
+     */
+    static final StaticHelpContent INSTANCE =
+        Boolean.getBoolean("net.sf.helpaddons.crosslinkmanager.mapZipFiles") //$NON-NLS-1$
+        ? new MappedStaticHelpContent()
+        : new StaticHelpContent();
+
+    private static final String DOC_ZIP = "doc.zip"; //$NON-NLS-1$
+
+    /** The maximum number of zip files to keep open (default: 32). */
+    private static final int MAX_OPEN_ZIP_FILES =
+        Integer.getInteger("net.sf.helpaddons.crosslinkmanager.maxOpenZipFiles", //$NON-NLS-1$
+                           32).intValue();
+
+    /** Bundle ID -> index of the resources of the bundle. */
+    private final Map<Long, ResourceIndex> indexes =
+        new ConcurrentHashMap<Long, ResourceIndex>();
+
+    /** Open zip files (with the keys of the {@link ZipLocation}s). */
+    private final ZipFilePool zipFiles = new ZipFilePool(MAX_OPEN_ZIP_FILES);
+
+    public InputStream getInputStream(String plugin,
+                                      String href,
+                                      Locale locale) {
+        return getInputStream(plugin,
+                              href,
+                              locale == null ? null : locale.toString());
+    }
+
+    public InputStream getInputStream(String plugin,
+                                      String href,
+                                      String locale) {
+        if (Platform.getBundle(plugin) == null) return null;
+        long start = System.nanoTime();
+
+        // href without query
+        String hrefWithoutQuery = removeQuery(href);
+
+        Bundle bundle = Platform.getBundle(plugin);
+
+        // 1. first try to find the file inside "doc.zip"...
+        InputStream in = openFromZip(bundle,
+                                     DOC_ZIP,
+                                     hrefWithoutQuery,
+                                     locale);
+        if (in != null) {
+            CrossLinkMetrics.INSTANCE.recordLookup(System.nanoTime() - start,
+                                                   true,
+                                                   true);
+            return in;
+        }
+
+        // 2. ... and then try the file system
+        in = openFromPlugin(bundle, hrefWithoutQuery, locale);
+        CrossLinkMetrics.INSTANCE.recordLookup(System.nanoTime() - start,
+                                               false,
+                                               in != null);
+        return in;
+
+    }
+
+    public boolean checkExists(String pluginId,
+                               String href,
+                               Locale locale) {
+        return checkExists(pluginId,
+                           href,
+                           locale == null ? null : locale.toString());
+    }
+
+    public boolean checkExists(String pluginId,
+                               String href,
+                               String locale) {
+        boolean exists = computeExists(pluginId, href, locale);
+        CrossLinkMetrics.INSTANCE.recordExistsCheck(exists);
+        return exists;
+    }
+
+    private boolean computeExists(String pluginId,
+                                  String href,
+                                  String locale) {
+        Bundle bundle = Platform.getBundle(pluginId);
+        if (bundle == null) return false;
+
+        String hrefWithoutQuery = removeQuery(href);
+        if (   Platform.inDevelopmentMode()
+            || !ResourceIndex.isIndexable(hrefWithoutQuery)) {
+            return checkExistsByOpening(pluginId, href, locale);
+        }
+
+        ResourceIndex index = getIndex(bundle);
+        PathPrefixes pathPrefix = getPathPrefix(locale);
+        File[] docZips = new File[pathPrefix.docZips.length];
+        for (int i = 0; i < docZips.length; i++) {
+            docZips[i] = findZip(bundle, pathPrefix.docZips[i]);
+        }
+        if (exists(index,
+                   pathPrefix.prefixes,
+                   pathPrefix.docZips,
+                   docZips,
+                   hrefWithoutQuery)) return true;
+
+        // on case-insensitive file systems a file might be opened even if
+        // the case differs: check by opening only in this rare case
+        for (int i = 0; i < pathPrefix.prefixes.length; i++) {
+            if (index.containsFileIgnoringCase(pathPrefix.prefixes[i]
+                                               + hrefWithoutQuery)) {
+                return checkExistsByOpening(pluginId, href, locale);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up a resource in the index in the same order as
+     * {@link #getInputStream(String, String, String)} opens it: first in the
+     * "doc.zip" files, then in the file system, each in the order of the
+     * path prefixes.
+     *
+     * @param index the index of the bundle
+     * @param prefixes the path prefixes, e.g. {@code "nl/de/", ""}
+     * @param docZipPaths the paths of the "doc.zip" files of the prefixes,
+     *                    e.g. {@code "nl/de/doc.zip", "doc.zip"}
+     * @param docZips the "doc.zip" files of the prefixes on the file system
+     *                ({@code null} if there is no such file)
+     * @param hrefWithoutQuery the (indexable) HTML reference without query
+     * @return {@code true} if and only if the resource exists (with exactly
+     *         the same case)
+     */
+    static boolean exists(ResourceIndex index,
+                          String[] prefixes,
+                          String[] docZipPaths,
+                          File[] docZips,
+                          String hrefWithoutQuery) {
+
+        // 1. "doc.zip" (like in a "jar:" URL an anchor is ignored)...
+        String zipEntry = ResourceIndex.removeAnchor(hrefWithoutQuery);
+        for (int i = 0; i < docZips.length; i++) {
+            if (   docZips[i] != null
+                && index.containsZipEntry(docZipPaths[i],
+                                          docZips[i],
+                                          zipEntry)) return true;
+        }
+
+        // 2. ... and the file system
+        for (int i = 0; i < prefixes.length; i++) {
+            if (index.containsFile(prefixes[i] + hrefWithoutQuery))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lists the HTML files of a bundle (including its fragments and its
+     * "doc.zip" files) as they are visible in the specified locale.
+     *
+     * @param pluginId the bundle symbolic name
+     * @param locale the locale to use or {@code null} to use the default
+     *               locale
+     * @return the HTML references of the HTML files, e.g.
+     *         {@code "dir/topic.htm"} (sorted)
+     */
+    Set<String> listHtmlFiles(String pluginId, String locale) {
+        Set<String> result = new TreeSet<String>();
+        Bundle bundle = Platform.getBundle(pluginId);
+        if (bundle == null) return result;
+
+        ResourceIndex index = getIndex(bundle);
+        PathPrefixes pathPrefix = getPathPrefix(locale);
+        for (int i = 0; i < pathPrefix.prefixes.length; i++) {
+            String prefix = pathPrefix.prefixes[i];
+
+            // 1. "doc.zip"...
+            String zipPath = pathPrefix.docZips[i];
+            File zip = findZip(bundle, zipPath);
+            if (zip != null) {
+                for (String entry : index.getZipEntries(zipPath, zip)) {
+                    if (HelpContentWithCrossLinks.hasHtmlFileExtension(entry)) {
+                        result.add(entry);
+                    }
+                }
+            }
+
+            // 2. ... and the file system (without the files of other locales,
+            //    operating systems and windowing systems)
+            for (String file : index.getFiles()) {
+                if (   !file.startsWith(prefix)
+                    || !HelpContentWithCrossLinks.hasHtmlFileExtension(file)) continue;
+                String href = file.substring(prefix.length());
+                if (   prefix.length() == 0
+                    && (   href.startsWith("nl/") //$NON-NLS-1$
+                        || href.startsWith("os/") //$NON-NLS-1$
+                        || href.startsWith("ws/"))) continue; //$NON-NLS-1$
+                result.add(href);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards all cached information about the specified bundle, e.g.
+     * because the bundle has been updated or uninstalled.
+     *
+     * @param bundle the bundle to forget
+     */
+    void flush(Bundle bundle) {
+        indexes.remove(Long.valueOf(bundle.getBundleId()));
+        String prefix = bundle.getSymbolicName() + '/';
+        flushZips(prefix);
+        zipCache.remove(bundle.getSymbolicName());
+    }
+
+    /** Discards all cached information about all bundles. */
+    void flush() {
+        indexes.clear();
+        flushZips(""); //$NON-NLS-1$
+        zipCache.clear();
+    }
+
+    /**
+     * Opens an entry of a zip file which is on the file system.
+     *
+     * @param key the key of the zip file (bundle symbolic name + '/' + path
+     *            of the zip file inside the bundle), e.g.
+     *            {@code "my.plugin/nl/de/doc.zip"}
+     * @param zip the zip file
+     * @param entryName the name of the entry to open
+     * @return the stream of the entry or {@code null} if the zip file does not
+     *         contain such an entry
+     * @throws IOException if the zip file cannot be read
+     */
+    InputStream openZipEntry(String key, File zip, String entryName)
+            throws IOException {
+        return zipFiles.getInputStream(key, zip, entryName);
+    }
+
+    /**
+     * Forgets (and closes) zip files opened by
+     * {@link #openZipEntry(String, File, String)}.
+     *
+     * @param keyPrefix the prefix of the keys of the zip files to forget, e.g.
+     *                  {@code "my.plugin/"} or {@code ""} for all zip files
+     */
+    void flushZips(String keyPrefix) {
+        zipFiles.remove(keyPrefix);
+    }
+
+    private ResourceIndex getIndex(Bundle bundle) {
+        Long id = Long.valueOf(bundle.getBundleId());
+        ResourceIndex index = indexes.get(id);
+        if (index == null || !index.isUpToDate(bundle)) {
+
+            // persisted by the last run (if not changed since then)?
+            ResourceIndex persisted = index == null
+                                      ? ResourceIndexStore.getInstance().get(bundle)
+                                      : null;
+            index = persisted == null ? ResourceIndex.create(bundle) : persisted;
+            indexes.put(id, index);
+        }
+        return index;
+    }
+
+    /**
+     * Persists the current resource indexes so that they can be reused by
+     * the next run (see {@link ResourceIndexStore}).
+     *
+     * @throws IOException if the indexes cannot be written
+     */
+    void saveIndexes() throws IOException {
+        ResourceIndexStore.getInstance().save(indexes.values());
+    }
+
+    private boolean checkExistsByOpening(String pluginId,
+                                         String href,
+                                         String locale) {
+        InputStream resource = null;
+        try {
+            resource = getInputStream(pluginId, href, locale);
+            return resource != null;
+        } finally {
+            if (resource != null) {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+// TODO log
+                }
+            }
+        }
+    }
+
+    private static String removeQuery(String href) {
+        int queryDelimiterIndex = href.indexOf('?');
+        return queryDelimiterIndex < 0
+               ? href
+               : href.substring(0, queryDelimiterIndex);
+    }
+
+    /**
+     * @param pluginDesc the bundle which might contain the zip file
+     * @param zipPath the path of the zip file inside the bundle
+     * @return the zip file or {@code null} if the bundle does not contain
+     *         such a zip file or if it is not accessible on the file system
+     */
+    private File findZip(Bundle pluginDesc, String zipPath) {
+        Object cached = findZipCached(pluginDesc, zipPath);
+        return cached == ZIP_NOT_FOUND ? null : ((ZipLocation) cached).file;
+    }
+
+    /** A zip file of a bundle: its URL, file and key computed once. */
+    private static final class ZipLocation {
+
+        /** The external form of the file URL of the zip file. */
+        private final String url;
+
+        /**
+         * The zip file or {@code null} if the zip file is not on the file
+         * system ("jar:" URL).
+         */
+        private final File file;
+
+        /**
+         * The key of the zip file, e.g. {@code "my.plugin/nl/de/doc.zip"}
+         * (see {@link StaticHelpContent#openZipEntry(String, File, String)}).
+         */
+        private final String key;
+
+        private ZipLocation(String url, String pluginID, String zipPath) {
+            this.url = url;
+            this.file = toFile(url);
+            this.key = pluginID + '/' + zipPath;
+        }
+
+        private static File toFile(String url) {
+            if (url.startsWith("jar:")) return null; //$NON-NLS-1$
+            try {
+                return new File(new URL(url).getPath());
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+    }
+
+    /**
+     * The path prefixes to search for one locale (see
+     * {@link StaticHelpContent#getPathPrefix(String)}) computed once per
+     * locale.
+     */
+    private static final class PathPrefixes {
+
+        /** E.g. {@code "ws/win32/", "os/win32/", "nl/de/", ""}. */
+        private final String[] prefixes;
+
+        /** The prefixes as paths. */
+        private final IPath[] paths;
+
+        /** The paths of the "doc.zip" files, e.g. {@code "nl/de/doc.zip"}. */
+        private final String[] docZips;
+
+        private PathPrefixes(List<String> prefixes) {
+            this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+            paths = new IPath[this.prefixes.length];
+            docZips = new String[this.prefixes.length];
+            for (int i = 0; i < this.prefixes.length; i++) {
+                paths[i] = new Path(this.prefixes[i]);
+                docZips[i] = this.prefixes[i] + DOC_ZIP;
+            }
+        }
+
+    }
+
+    /**
+     * The maximum number of locales for which the path prefixes are cached
+     * (the locale might be specified by the user).
+     */
+    private static final int MAX_CACHED_PATH_PREFIXES = 64;
+
+    /** Locale (or {@code ""} for no locale) -> path prefixes. */
+    private final Map<String, PathPrefixes> pathPrefixes =
+        new ConcurrentHashMap<String, PathPrefixes>();
+
+
+    // -----------------------------------------------------------------
+    // The following is a partial copy of the internal
+    // org.eclipse.help.internal.util.ResourceLocator
+    // "public" -> "private"; Generic added; "static" removed; path prefixes
+    // and zip file locations precomputed
+
+    /** Bundle symbolic name -> zip path -> {@link ZipLocation} or
+     *  {@link #ZIP_NOT_FOUND}. */
+    private final Map<String, Map<String, Object>> zipCache =
+        new ConcurrentHashMap<String, Map<String, Object>>();
+
+    private final Object ZIP_NOT_FOUND = new Object();
+
+    /**
+     * Opens an input stream to a file contained in a zip in a plugin. This includes OS, WS and NL
+     * lookup.
+     *
+     * @param pluginDesc
+     *            the plugin description of the plugin that contains the file you are trying to find
+     * @param file
+     *            the relative path of the file to find
+     * @param locale
+     *            the locale used as an override or <code>null</code> to use the default locale
+     *
+     * @return an InputStream to the file or <code>null</code> if the file wasn't found
+     */
+    private InputStream openFromZip(Bundle pluginDesc, String zip, String file, String locale) {
+
+        PathPrefixes pathPrefix = getPathPrefix(locale);
+        String[] zipPaths = DOC_ZIP.equals(zip) ? pathPrefix.docZips : null;
+
+        for (int i = 0; i < pathPrefix.prefixes.length; i++) {
+
+            Object cached = findZipCached(pluginDesc,
+                                          zipPaths == null
+                                          ? pathPrefix.prefixes[i] + zip
+                                          : zipPaths[i]);
+
+            if (cached == ZIP_NOT_FOUND || ((ZipLocation) cached).file == null)
+                continue;
+            ZipLocation location = (ZipLocation) cached;
+
+            // cached should be a zip file that is actually on the filesystem
+            // now check if the file is in this zip: via an already open zip
+            // file unless the entry has to be URL decoded (like in the
+            // "jar:" URL below, the anchor is ignored)
+            if (file.indexOf('%') < 0) {
+                try {
+                    InputStream in = openZipEntry(
+                            location.key,
+                            location.file,
+                            ResourceIndex.removeAnchor(file));
+                    if (in != null) return in;
+                } catch (IOException ioe) {
+                    // a file not found exception is an io exception
+                }
+                continue;
+            }
+            try {
+                URL jurl = new URL("jar", "", location.url + "!/" + file); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                URLConnection jconnection = jurl.openConnection();
+                jconnection.setDefaultUseCaches(false);
+                jconnection.setUseCaches(false);
+                return jconnection.getInputStream();
+            } catch (IOException ioe) {
+                // a file not found exception is an io exception
+                continue;
+            }
+
+        } // end for loop
+
+        // we didn't find the file in any zip
+        return null;
+    }
+
+    /**
+     * Finds the zip file by either using a cached location, or calling
+     * Platform.find - the result is cached for future use.
+     *
+     * @return the {@link ZipLocation} of the zip file or
+     *         {@link #ZIP_NOT_FOUND}
+     */
+    private Object findZipCached(Bundle pluginDesc, String zipPath) {
+        String pluginID = pluginDesc.getSymbolicName();
+        Map<String, Object> cache = zipCache.get(pluginID);
+        if (cache == null) {
+            cache = new ConcurrentHashMap<String, Object>();
+            zipCache.put(pluginID, cache);
+        }
+        Object cached = cache.get(zipPath);
+        if (cached == null) {
+            try {
+                URL url = FileLocator.find(pluginDesc, new Path(zipPath), null);
+                if (url != null) {
+                    URL realZipURL = FileLocator.toFileURL(FileLocator.resolve(url));
+                    cached = new ZipLocation(realZipURL.toExternalForm(),
+                                             pluginID,
+                                             zipPath);
+                } else {
+                    cached = ZIP_NOT_FOUND;
+                }
+            } catch (IOException ioe) {
+                cached = ZIP_NOT_FOUND;
+            }
+            // cache it
+            cache.put(zipPath, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Opens an input stream to a file contained in a plugin. This includes includes OS, WS and NL
+     * lookup.
+     *
+     * @param pluginDesc
+     *            the plugin description of the plugin that contains the file you are trying to find
+     * @param file
+     *            the relative path of the file to find
+     * @param locale
+     *            the locale used as an override or <code>null</code> to use the default locale
+     *
+     * @return an InputStream to the file or <code>null</code> if the file wasn't found
+     */
+    private InputStream openFromPlugin(Bundle pluginDesc, String file, String locale) {
+
+        PathPrefixes pathPrefix = getPathPrefix(locale);
+        URL flatFileURL = find(pluginDesc, new Path(file), pathPrefix);
+        if (flatFileURL != null)
+            try {
+                return flatFileURL.openStream();
+            } catch (IOException e) {
+                return null;
+            }
+        return null;
+    }
+
+    /**
+     * Search the ws, os then nl for a resource. Platform.find can't be used directly with $nl$,
+     * $os$ or $ws$ becuase the root directory will be searched too early.
+     */
+    private URL find(Bundle pluginDesc, IPath flatFilePath, PathPrefixes pathPrefix) {
+
+        // try to find the actual file.
+        for (int i = 0; i < pathPrefix.paths.length; i++) {
+            IPath prefix = pathPrefix.paths[i];
+            URL url = FileLocator.find(pluginDesc,
+                                       prefix.isEmpty()
+                                       ? flatFilePath
+                                       : prefix.append(flatFilePath),
+                                       null);
+            if (url != null)
+                return url;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the path prefixes to search (computed once per locale).
+     *
+     * @param locale the locale used as an override or <code>null</code> to use the default locale
+     * @return the path prefixes that need to be search including an entry for
+     * the root of the plugin.
+     */
+    private PathPrefixes getPathPrefix(String locale) {
+        if (locale == null)
+            locale = Platform.getNL();
+        String key = locale == null ? "" : locale; //$NON-NLS-1$
+        PathPrefixes result = pathPrefixes.get(key);
+        if (result == null) {
+            result = new PathPrefixes(computePathPrefix(Platform.getWS(),
+                                                        Platform.getOS(),
+                                                        locale));
+            if (pathPrefixes.size() < MAX_CACHED_PATH_PREFIXES) {
+                pathPrefixes.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets an ArrayList that has the path prefixes to search.
+     *
+     * @param ws the windowing system, e.g. {@link Platform#getWS()}
+     * @param os the operating system, e.g. {@link Platform#getOS()}
+     * @param locale the locale used as an override or <code>null</code> to use the default locale
+     * @return an ArrayList that has path prefixes that need to be search. The returned ArrayList
+     * will have an entry for the root of the plugin.
+     */
+    static List<String> computePathPrefix(String ws, String os, String locale) {
+        List<String> pathPrefix = new LinkedList<String>();
+
+        if (ws != null)
+            pathPrefix.add("ws/" + ws + '/'); //$NON-NLS-1$
+
+        if (os != null && !os.equals("OS_UNKNOWN")) //$NON-NLS-1$
+            pathPrefix.add("os/" + os + '/'); //$NON-NLS-1$
+
+        if (locale != null && locale.length() >= 5)
+            pathPrefix.add("nl/" + locale.substring(0, 2) + '/' + locale.substring(3, 5) + '/'); //$NON-NLS-1$
+
+        if (locale != null && locale.length() >= 2)
+            pathPrefix.add("nl/" + locale.substring(0, 2) + '/'); //$NON-NLS-1$
+
+        // the plugin root
+        pathPrefix.add(""); //$NON-NLS-1$
+
+        return pathPrefix;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which can be incremented concurrently without contention: each
+ * thread adds to one of several stripes (on separate cache lines) which are
+ * summed up on reading.
+ */
+class StripedCounter {
+
+    /** The number of stripes (a power of two). */
+    static final int STRIPES = computeStripes();
+
+    /** Distance of the stripes in longs (64 bytes to avoid false sharing). */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int computeStripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < 2 * processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * @return the index of the stripe to be used by the current thread
+     *         ({@code 0} to {@link #STRIPES}{@code - 1})
+     */
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    void increment() {
+        cells.incrementAndGet(stripe() * PADDING);
+    }
+
+    void add(long delta) {
+        cells.addAndGet(stripe() * PADDING, delta);
+    }
+
+    /** @return the sum of all stripes */
+    long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+}
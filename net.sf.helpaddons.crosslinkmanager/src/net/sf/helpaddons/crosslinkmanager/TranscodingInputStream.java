@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Streaming re-encoding of an input stream, chunk by chunk (without decoding
+ * the whole content at once), e.g. from UTF-16 to UTF-8. Malformed input and
+ * unmappable characters are replaced.
+ */
+class TranscodingInputStream extends InputStream {
+
+    private final InputStreamReader in;
+
+    private final CharsetEncoder encoder;
+
+    /** Decoded but not yet encoded characters (in read mode). */
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+
+    /** Encoded but not yet returned bytes (in read mode). */
+    private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+
+    private boolean endOfInput = false;
+
+    private boolean finished = false;
+
+    /**
+     * @param in the stream to re-encode
+     * @param from the encoding of the stream to re-encode
+     * @param to the encoding to return
+     */
+    TranscodingInputStream(InputStream in, Charset from, Charset to) {
+        this.in = new InputStreamReader(in,
+                                        from.newDecoder()
+                                            .onMalformedInput(CodingErrorAction.REPLACE)
+                                            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        encoder = to.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars.flip();
+        bytes.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (!bytes.hasRemaining()) {
+            if (!encode()) return -1;
+        }
+        return bytes.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (!bytes.hasRemaining()) {
+            if (!encode()) return -1;
+        }
+        int count = Math.min(len, bytes.remaining());
+        bytes.get(b, off, count);
+        return count;
+    }
+
+    /**
+     * Decodes the next chunk and encodes it into {@link #bytes}.
+     *
+     * @return {@code false} if and only if there is nothing more to encode
+     */
+    private boolean encode() throws IOException {
+        if (finished) return false;
+
+        // next chars
+        if (!endOfInput) {
+            chars.compact();
+            int read = in.read(chars.array(),
+                               chars.arrayOffset() + chars.position(),
+                               chars.remaining());
+            if (read > 0) {
+                chars.position(chars.position() + read);
+            }
+            chars.flip();
+            if (read < 0) {
+                endOfInput = true;
+            }
+        }
+
+        // encode
+        bytes.clear();
+        boolean underflow =
+            encoder.encode(chars, bytes, endOfInput).isUnderflow();
+        if (endOfInput && underflow) {
+            encoder.flush(bytes);
+            finished = true;
+        }
+        bytes.flip();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.crosslinkmanager;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Bounded pool of open zip files (least recently used zip files are closed
+ * first) to avoid reading the central directory of a zip file again and again.
+ * A zip file which is removed from the pool is closed as soon as all streams
+ * which have been opened from it are closed. A zip file which has been
+ * modified (other modification time or length) since it was opened is opened
+ * again.
+ */
+class ZipFilePool {
+
+    /** The maximum number of zip files to keep open. */
+    private final int maxOpen;
+
+    /** Key -> open zip file (in access order). */
+    private final Map<String, Handle> handles =
+        new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+    /** The number of opened but not yet closed zip files. */
+    private int openZipFiles = 0;
+
+    private static class Handle {
+
+        private final ZipFile zipFile;
+
+        /** The modification time of the zip file when it was opened. */
+        private final long lastModified;
+
+        /** The length of the zip file when it was opened. */
+        private final long length;
+
+        /** Number of acquired but not yet released usages. */
+        private int users = 0;
+
+        /** {@code true} if no longer in pool (to be closed when unused). */
+        private boolean removed = false;
+
+        private Handle(ZipFile zipFile, long lastModified, long length) {
+            this.zipFile = zipFile;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean isOf(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+
+    }
+
+    /**
+     * Stream of a zip entry which releases the zip file when closed.
+     */
+    private class EntryInputStream extends FilterInputStream {
+
+        private Handle handle;
+
+        private EntryInputStream(InputStream in, Handle handle) {
+            super(in);
+            this.handle = handle;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (handle != null) {
+                    release(handle);
+                    handle = null;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @param maxOpen the maximum number of zip files to keep open
+     */
+    ZipFilePool(int maxOpen) {
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * @param key the key of the zip file, e.g.
+     *            {@code "my.plugin/nl/de/doc.zip"}
+     * @param zip the zip file to open if it is not already open
+     * @param entryName the name of the entry to open
+     * @return the stream of the entry (which has to be closed) or
+     *         {@code null} if the zip file does not contain such an entry
+     * @throws IOException if the zip file cannot be opened or read
+     */
+    InputStream getInputStream(String key, File zip, String entryName)
+            throws IOException {
+        Handle handle = acquire(key, zip);
+        InputStream in = null;
+        try {
+            ZipEntry entry = handle.zipFile.getEntry(entryName);
+            if (entry == null || entry.isDirectory()) return null;
+            in = new EntryInputStream(handle.zipFile.getInputStream(entry),
+                                      handle);
+            return in;
+        } finally {
+            if (in == null) {
+                release(handle);
+            }
+        }
+    }
+
+    /**
+     * Removes (and closes as soon as they are no longer in use) all zip files
+     * with keys which start with the specified prefix.
+     *
+     * @param keyPrefix the key prefix, e.g. {@code "my.plugin/"}
+     */
+    void remove(String keyPrefix) {
+        List<Handle> toClose = new ArrayList<Handle>();
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, Handle>> i =
+                     handles.entrySet().iterator();
+                 i.hasNext();) {
+                Map.Entry<String, Handle> entry = i.next();
+                if (entry.getKey().startsWith(keyPrefix)) {
+                    i.remove();
+                    if (markRemoved(entry.getValue())) {
+                        toClose.add(entry.getValue());
+                    }
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Removes (and closes as soon as they are no longer in use) all zip
+     * files.
+     */
+    void removeAll() {
+        remove(""); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the number of opened but not yet closed zip files (in the pool
+     *         or removed from the pool but still in use)
+     */
+    synchronized int getOpenZipFiles() {
+        return openZipFiles;
+    }
+
+    private Handle acquire(String key, File zip) throws IOException {
+        long lastModified = zip.lastModified();
+        long length = zip.length();
+        List<Handle> toClose = new ArrayList<Handle>();
+        synchronized (this) {
+            Handle handle = handles.get(key);
+            if (handle != null && handle.isOf(lastModified, length)) {
+                handle.users++;
+                return handle;
+            }
+
+            // modified since opened: open again
+            if (handle != null) {
+                remove(key, handle, toClose);
+            }
+        }
+        close(toClose);
+        toClose.clear();
+
+        // open outside the lock (reading the central directory may take a
+        // while)...
+        ZipFile zipFile = new ZipFile(zip);
+
+        // ...but add inside
+        Handle handle;
+        synchronized (this) {
+            openZipFiles++;
+            handle = handles.get(key);
+            if (handle != null && !handle.isOf(lastModified, length)) {
+                remove(key, handle, toClose);
+                handle = null;
+            }
+            if (handle == null) {
+                handle = new Handle(zipFile, lastModified, length);
+                handles.put(key, handle);
+
+                // evict least recently used
+                for (Iterator<Handle> i = handles.values().iterator();
+                     handles.size() > maxOpen && i.hasNext();) {
+                    Handle eldest = i.next();
+                    if (eldest == handle) continue;
+                    i.remove();
+                    if (markRemoved(eldest)) {
+                        toClose.add(eldest);
+                    }
+                }
+
+            } else {
+
+                // opened concurrently by another thread
+                toClose.add(new Handle(zipFile, lastModified, length));
+            }
+            handle.users++;
+        }
+        close(toClose);
+        return handle;
+    }
+
+    private void release(Handle handle) {
+        synchronized (this) {
+            handle.users--;
+            if (!handle.removed || handle.users > 0) return;
+        }
+        closeQuietly(handle.zipFile);
+    }
+
+    /** Removes a handle from the pool (the caller must hold the lock). */
+    private void remove(String key, Handle handle, List<Handle> toClose) {
+        handles.remove(key);
+        if (markRemoved(handle)) {
+            toClose.add(handle);
+        }
+    }
+
+    /**
+     * @return {@code true} if the handle is not in use and can be closed
+     *         immediately
+     */
+    private static boolean markRemoved(Handle handle) {
+        handle.removed = true;
+        return handle.users == 0;
+    }
+
+    private void close(List<Handle> toClose) {
+        for (Handle handle : toClose) {
+            closeQuietly(handle.zipFile);
+        }
+    }
+
+    private void closeQuietly(ZipFile zipFile) {
+        synchronized (this) {
+            openZipFiles--;
+        }
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+}
@@ -10,12 +10,14 @@
  *******************************************************************************/
 package net.sf.helpaddons.rcp.product;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
 
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.equinox.app.IApplication;
 import org.eclipse.equinox.app.IApplicationContext;
@@ -23,20 +25,67 @@ import org.eclipse.help.internal.base.BaseHelpSystem;
 import org.eclipse.help.internal.search.LocalSearchManager;
 import org.eclipse.help.internal.search.SearchIndexWithIndexingProgress;
 
+import net.sf.helpaddons.rcp.product.internal.IndexingProgressMonitor;
+import net.sf.helpaddons.rcp.product.internal.IndexingReport;
+import net.sf.helpaddons.rcp.product.internal.RcpPlugin;
+
 /**
  * This application creates or update the search index depending on
  * {@link #indexWebLocales()} either for the current locale and for all by the
  * "-locales" parameter specified locales or for the current locale only.
+ * <p>
+ * With the "-parallel" parameter, optionally followed by the maximum number
+ * of threads to use (default: number of processors), the indexes of the
+ * locales are created or updated concurrently: at the end the time needed per
+ * locale and the locales which failed are reported and the exit code is
+ * {@link #EXIT_PARTIAL_FAILURE} if at least one locale failed.
+ * <p>
+ * The elapsed time and the work done per locale and per indexing task are
+ * written as JSON file to the state location of this plug-in (see
+ * {@link IndexingReport}).
  */
 public abstract class AbstractIndexer implements IApplication {
 
+    /** Exit code if the index of at least one locale could not be updated. */
+    public static final Integer EXIT_PARTIAL_FAILURE = new Integer(1);
+
+    /** The {@link IndexingProgressMonitor}s of the current run. */
+    private final List monitors = Collections.synchronizedList(new ArrayList());
+
     public synchronized Object start(IApplicationContext context) throws Exception {
+        monitors.clear();
+        try {
+            return indexAll();
+        } finally {
+            writeReport();
+        }
+    }
+
+    private Object indexAll() throws Exception {
 
         // default locale
         String defaultLocale = Platform.getNL();
         if (defaultLocale == null) {
             defaultLocale = Locale.getDefault().toString();
         }
+
+        // in parallel?
+        int threads = computeParallelism();
+        if (threads > 0) {
+            List locales = new ArrayList();
+            locales.add(defaultLocale);
+            if (indexWebLocales()) {
+                String[] webLocales = computeLocales();
+                for (int i = 0; i < webLocales.length; i++) {
+                    if (   webLocales[i] == null
+                        || locales.contains(webLocales[i])) continue;
+                    locales.add(webLocales[i]);
+                }
+            }
+            return indexInParallel((String[]) locales.toArray(new String[locales.size()]),
+                                   threads);
+        }
+
         index(defaultLocale);
 
         // default locale only (RCP application)
@@ -63,11 +112,108 @@ public abstract class AbstractIndexer implements IApplication {
 
     abstract protected boolean indexWebLocales();
 
+    /**
+     * Creates or updates the indexes of the specified locales using a bounded
+     * number of worker threads.
+     *
+     * @param locales the locales to index
+     * @param threads the maximum number of threads to use
+     * @return {@link #EXIT_OK} or {@link #EXIT_PARTIAL_FAILURE}
+     */
+    private Object indexInParallel(final String[] locales, int threads)
+            throws InterruptedException {
+        final long[] durations = new long[locales.length];
+        final Throwable[] failures = new Throwable[locales.length];
+        final int[] next = new int[1];
+        Runnable worker = new Runnable() {
+            public void run() {
+                while (true) {
+                    int i;
+                    synchronized (next) {
+                        if (next[0] >= locales.length) return;
+                        i = next[0]++;
+                    }
+                    long start = System.currentTimeMillis();
+                    try {
+                        index(locales[i]);
+                    } catch (Throwable e) {
+                        failures[i] = e;
+                    }
+                    durations[i] = System.currentTimeMillis() - start;
+                }
+            }
+        };
+
+        // start workers and wait until all locales are indexed
+        long start = System.currentTimeMillis();
+        Thread[] workers = new Thread[Math.min(threads, locales.length)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(worker, "Indexer " + (i + 1)); //$NON-NLS-1$
+            workers[i].start();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].join();
+        }
+
+        // report
+        int failed = 0;
+        for (int i = 0; i < locales.length; i++) {
+            if (failures[i] == null) {
+                System.out.println("Indexed " + locales[i] //$NON-NLS-1$
+                                   + " in " + durations[i] + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+                continue;
+            }
+            failed++;
+            System.out.println("Failed to index " + locales[i] //$NON-NLS-1$
+                               + " after " + durations[i] + " ms: " //$NON-NLS-1$ //$NON-NLS-2$
+                               + failures[i]);
+            RcpPlugin.log("Failed to index " + locales[i], failures[i]); //$NON-NLS-1$
+        }
+        System.out.println("Indexed " + (locales.length - failed) //$NON-NLS-1$
+                           + " of " + locales.length + " locales with " //$NON-NLS-1$ //$NON-NLS-2$
+                           + workers.length + " threads in " //$NON-NLS-1$
+                           + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$
+        return failed == 0 ? EXIT_OK : EXIT_PARTIAL_FAILURE;
+    }
+
+    /**
+     * @return the number of threads specified by the "-parallel" parameter
+     *         (default: number of processors) or {@code 0} if the locales
+     *         should be indexed one after the other
+     */
+    private static int computeParallelism() {
+        String[] args = Platform.getCommandLineArgs();
+        for (int i = 0; i < args.length; i++) {
+            if (!"-parallel".equalsIgnoreCase(args[i])) continue; //$NON-NLS-1$
+            if (i + 1 < args.length) {
+                try {
+                    return Math.max(1, Integer.parseInt(args[i + 1]));
+                } catch (NumberFormatException e) {
+                    // no number: use default
+                }
+            }
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return 0;
+    }
+
     private void index(String locale) {
         LocalSearchManager searchManager =
                 BaseHelpSystem.getLocalSearchManager();
         SearchIndexWithIndexingProgress index = searchManager.getIndex(locale);
-        searchManager.ensureIndexUpdated(new NullProgressMonitor(), index);
+        IndexingProgressMonitor monitor = new IndexingProgressMonitor(locale);
+        monitors.add(monitor);
+        searchManager.ensureIndexUpdated(monitor, index);
+    }
+
+    private void writeReport() {
+        if (monitors.isEmpty()) return;
+        try {
+            File report = IndexingReport.write(monitors);
+            System.out.println("Indexing report: " + report); //$NON-NLS-1$
+        } catch (IOException e) {
+            RcpPlugin.log("Failed to write indexing report", e); //$NON-NLS-1$
+        }
     }
 
     /**
@@ -49,6 +49,8 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.preferences.ScopedPreferenceStore;
 import org.osgi.framework.Bundle;
 
+import net.sf.helpaddons.crosslinkmanager.StartupTimeline;
+import net.sf.helpaddons.rcp.product.internal.CacheWarmUpJob;
 import net.sf.helpaddons.rcp.product.internal.RcpPlugin;
 
 /**
@@ -173,6 +175,7 @@ public class HelpRcpApplication implements IApplication {
 
     public synchronized Object start(final IApplicationContext context)
             throws Exception {
+        StartupTimeline.mark("application starting");
 
         Display.setAppName(context.getBrandingName());
         display().addListener(SWT.OpenDocument, OPEN_FILE_LISTENER);
@@ -206,6 +209,8 @@ public class HelpRcpApplication implements IApplication {
             }
         }
 
+        StartupTimeline.mark("restart checks done");
+
         // start web server
         BaseHelpSystem.setMode(BaseHelpSystem.MODE_STANDALONE);
         if (!BaseHelpSystem.ensureWebappRunning()) {
@@ -214,11 +219,13 @@ public class HelpRcpApplication implements IApplication {
                     .getLogFileLocation().toOSString()));
             return EXIT_OK;
         }
+        StartupTimeline.mark("web app running");
 
         // as soon as the UI thread is started (see below)
         // display the help window
         display().asyncExec(new Runnable() {
             public void run() {
+                StartupTimeline.mark("UI loop running");
 
                 // end splash (in the org.eclipse.core.runtime.applications
                 // extension thread must be set to "main") etc.
@@ -237,12 +244,19 @@ public class HelpRcpApplication implements IApplication {
                         SearchIndexWithIndexingProgress index =
                                 searchManager.getIndex(locale);
                         searchManager.ensureIndexUpdated(monitor, index);
+                        StartupTimeline.mark("index updated");
+                        StartupTimeline.finish();
                         return Status.OK_STATUS;
                     }
                 };
                 ensureIndexUpdated.setPriority(Job.LONG);
                 ensureIndexUpdated.schedule();
 
+                // warm up caches in parallel to indexing (optional)
+                if (System.getProperty("net.sf.helpaddons.crosslinkmanager.warmUp") != null) {
+                    new CacheWarmUpJob().schedule();
+                }
+
                 // open help window
                 display().asyncExec(new Runnable() {
                     public void run() {
@@ -255,6 +269,7 @@ public class HelpRcpApplication implements IApplication {
                             for (int i = 0; i < openFileArgs.size(); i++) {
                                 open(openFileArgs.get(i).toString());
                             }
+                            StartupTimeline.mark("help window opened");
                         }
                     }
                 });
@@ -315,6 +330,7 @@ public class HelpRcpApplication implements IApplication {
     }
 
     public synchronized void stop() {
+        StartupTimeline.finish();
         stopHelp();
 
         // wait until start has finished
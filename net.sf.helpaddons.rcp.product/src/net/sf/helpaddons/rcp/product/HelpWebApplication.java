@@ -19,6 +19,8 @@ import org.eclipse.help.internal.base.BaseHelpSystem;
 import org.eclipse.help.internal.base.HelpApplication;
 import org.eclipse.help.internal.standalone.EclipseController;
 
+import net.sf.helpaddons.crosslinkmanager.StartupTimeline;
+
 /**
  * This application starts or stops Eclipse Help as web application. In contrast
  * to {@link org.eclipse.help.standalone.Infocenter} no "eclipse" executable
@@ -29,6 +31,7 @@ public class HelpWebApplication implements IApplication {
     private IApplication help;
 
     public Object start(IApplicationContext context) throws Exception {
+        StartupTimeline.mark("application starting");
 
         // shutdown?
         if (isShutdownRequested()) {
@@ -48,8 +51,10 @@ public class HelpWebApplication implements IApplication {
         // overwrite mode after(!) creating Help application
         // (otherwise "Bookmarks" tab will be shown)
         BaseHelpSystem.setMode(BaseHelpSystem.MODE_INFOCENTER);
+        StartupTimeline.mark("help application created");
 
-        // delegate to original
+        // delegate to original (runs until shut down; the startup is
+        // finished with the first page request)
         return help.start(context);
     }
 
@@ -64,6 +69,7 @@ public class HelpWebApplication implements IApplication {
     }
 
     public void stop() {
+        StartupTimeline.finish();
         help.stop();
         help = null;
     }
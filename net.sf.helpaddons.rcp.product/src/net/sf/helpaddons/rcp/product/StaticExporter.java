@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.rcp.product;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.osgi.framework.Bundle;
+
+import net.sf.helpaddons.crosslinkmanager.CrossLinkManagerPlugin;
+import net.sf.helpaddons.crosslinkmanager.CrossLinksResolvedInputStream;
+import net.sf.helpaddons.crosslinkmanager.HelpContentWithCrossLinks;
+import net.sf.helpaddons.crosslinkmanager.IHrefResolver;
+import net.sf.helpaddons.rcp.product.internal.RcpPlugin;
+
+/**
+ * This application exports the help content of all pool bundles (see
+ * extension point {@code net.sf.helpaddons.crosslinkmanager.contentPools})
+ * for the current locale to a directory which can be served by a plain
+ * static web server: the cross links of the HTML files are resolved once
+ * here instead of on each request. The files of a bundle are written to
+ * {@code <output>/<bundle symbolic name>/<href>}, so that the resolved
+ * cross links ({@code ../other.bundle/topic.htm}) work as in the help system.
+ * <p>
+ * Parameters:
+ * <ul>
+ *   <li>"-output &lt;directory>": the directory to write to (default:
+ *       "export" in the current working directory)</li>
+ *   <li>"-parallel &lt;n>": the maximum number of bundles to export
+ *       concurrently (default: number of processors)</li>
+ * </ul>
+ * The links which could not be resolved and therefore point to an error page
+ * are listed in {@link #BROKEN_LINKS_FILE} (tab-separated: source file, link
+ * target, error page). The exit code is {@link #EXIT_PARTIAL_FAILURE} if at
+ * least one bundle could not be exported.
+ */
+public class StaticExporter implements IApplication {
+
+    /** Exit code if at least one bundle could not be exported. */
+    public static final Integer EXIT_PARTIAL_FAILURE = new Integer(1);
+
+    /** The name of the manifest of broken links in the output directory. */
+    public static final String BROKEN_LINKS_FILE = "broken-links.txt"; //$NON-NLS-1$
+
+    private static final String DOC_ZIP = "doc.zip"; //$NON-NLS-1$
+
+    public synchronized Object start(IApplicationContext context) throws Exception {
+        final File output = computeOutputDirectory();
+        String nl = Platform.getNL();
+        final String locale = nl == null ? Locale.getDefault().toString() : nl;
+        Set poolBundles = new TreeSet(CrossLinkManagerPlugin.getPoolBundles());
+        final String[] bundles =
+            (String[]) poolBundles.toArray(new String[poolBundles.size()]);
+        final List brokenLinks = Collections.synchronizedList(new ArrayList());
+        final int[] files = new int[bundles.length];
+        final Throwable[] failures = new Throwable[bundles.length];
+        final int[] next = new int[1];
+        Runnable worker = new Runnable() {
+            public void run() {
+                while (true) {
+                    int i;
+                    synchronized (next) {
+                        if (next[0] >= bundles.length) return;
+                        i = next[0]++;
+                    }
+                    try {
+                        files[i] = export(bundles[i], locale, output, brokenLinks);
+                    } catch (Throwable e) {
+                        failures[i] = e;
+                    }
+                }
+            }
+        };
+
+        // start workers and wait until all bundles are exported
+        long start = System.currentTimeMillis();
+        Thread[] workers =
+            new Thread[Math.max(1, Math.min(computeParallelism(), bundles.length))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(worker, "Exporter " + (i + 1)); //$NON-NLS-1$
+            workers[i].start();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].join();
+        }
+        writeBrokenLinks(new File(output, BROKEN_LINKS_FILE), brokenLinks);
+
+        // report
+        int failed = 0;
+        int exported = 0;
+        for (int i = 0; i < bundles.length; i++) {
+            exported += files[i];
+            if (failures[i] == null) continue;
+            failed++;
+            System.out.println("Failed to export " + bundles[i] + ": " //$NON-NLS-1$ //$NON-NLS-2$
+                               + failures[i]);
+            RcpPlugin.log("Failed to export " + bundles[i], failures[i]); //$NON-NLS-1$
+        }
+        System.out.println("Exported " + exported + " files of " //$NON-NLS-1$ //$NON-NLS-2$
+                           + (bundles.length - failed) + " of " //$NON-NLS-1$
+                           + bundles.length + " bundles (" + locale //$NON-NLS-1$
+                           + ") with " + brokenLinks.size() //$NON-NLS-1$
+                           + " broken links to " + output.getAbsolutePath() //$NON-NLS-1$
+                           + " in " + (System.currentTimeMillis() - start) //$NON-NLS-1$
+                           + " ms"); //$NON-NLS-1$
+        return failed == 0 ? EXIT_OK : EXIT_PARTIAL_FAILURE;
+    }
+
+    public synchronized void stop() {
+
+        // wait until start has finished
+        synchronized(this) {};
+
+    }
+
+    /**
+     * Exports all resources of the specified bundle: HTML files with resolved
+     * cross links, all other files unchanged.
+     *
+     * @return the number of exported files
+     */
+    private static int export(String bundle,
+                              String locale,
+                              File output,
+                              List brokenLinks) throws IOException {
+        Bundle osgiBundle = Platform.getBundle(bundle);
+        if (osgiBundle == null) return 0;
+        int exported = 0;
+        byte[] buffer = new byte[8192];
+        for (Iterator i = listResources(osgiBundle, locale).iterator(); i.hasNext();) {
+            String href = (String) i.next();
+            InputStream in =
+                CrossLinkManagerPlugin.getStaticHelpContent().getInputStream(bundle,
+                                                                             href,
+                                                                             locale);
+            if (in == null) continue;
+            if (HelpContentWithCrossLinks.hasHtmlFileExtension(href)) {
+                IHrefResolver resolver =
+                    CrossLinkManagerPlugin.createHrefResolver(bundle,
+                                                              href,
+                                                              toLocale(locale));
+                in = new CrossLinksResolvedInputStream(in,
+                        new BrokenLinksRecorder(resolver,
+                                                bundle + '/' + href,
+                                                brokenLinks));
+            }
+            File file = new File(output, bundle + '/' + href);
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                try {
+                    out.close();
+                } finally {
+                    in.close();
+                }
+            }
+            exported++;
+        }
+        return exported;
+    }
+
+    /**
+     * @return the HTML references of all resources of the specified bundle
+     *         and its fragments (the files and the entries of the "doc.zip"
+     *         files) which are visible in the specified locale, except the
+     *         OSGi metadata and Java classes
+     */
+    private static Set listResources(Bundle bundle, String locale) {
+        String[] localePrefixes = computeLocalePrefixes(locale);
+        Set result = new TreeSet();
+        Enumeration entries = bundle.findEntries("/", "*", true); //$NON-NLS-1$ //$NON-NLS-2$
+        if (entries == null) return result;
+        while (entries.hasMoreElements()) {
+            URL url = (URL) entries.nextElement();
+            String path = url.getPath();
+            if (path.startsWith("/")) { //$NON-NLS-1$
+                path = path.substring(1);
+            }
+
+            // skip directories, metadata and classes
+            if (   path.endsWith("/") //$NON-NLS-1$
+                || path.startsWith("META-INF/") //$NON-NLS-1$
+                || path.endsWith(".class")) continue; //$NON-NLS-1$
+
+            // localized resource (not of the current locale: skip)
+            String href = path;
+            if (   path.startsWith("nl/") //$NON-NLS-1$
+                || path.startsWith("os/") //$NON-NLS-1$
+                || path.startsWith("ws/")) { //$NON-NLS-1$
+                href = null;
+                for (int i = 0; i < localePrefixes.length; i++) {
+                    if (!path.startsWith(localePrefixes[i])) continue;
+                    href = path.substring(localePrefixes[i].length());
+                    break;
+                }
+                if (href == null) continue;
+            }
+
+            if (href.equals(DOC_ZIP)) {
+                addZipEntries(url, result);
+            } else {
+                result.add(href);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the path prefixes of the localized resources, e.g.
+     *         {@code nl/de/CH/} and {@code nl/de/} for the locale "de_CH"
+     */
+    private static String[] computeLocalePrefixes(String locale) {
+        int separator = locale.indexOf('_');
+        if (separator < 0) return new String[] {"nl/" + locale + '/'}; //$NON-NLS-1$
+        String language = locale.substring(0, separator);
+        String country = locale.substring(separator + 1);
+        if (country.indexOf('_') >= 0) {
+            country = country.substring(0, country.indexOf('_'));
+        }
+        return new String[] {"nl/" + language + '/' + country + '/', //$NON-NLS-1$
+                             "nl/" + language + '/'}; //$NON-NLS-1$
+    }
+
+    private static void addZipEntries(URL url, Set result) {
+        ZipFile zip = null;
+        try {
+            zip = new ZipFile(new File(FileLocator.toFileURL(url).getPath()));
+            for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = (ZipEntry) entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || name.indexOf("..") >= 0) continue; //$NON-NLS-1$
+                result.add(name);
+            }
+        } catch (IOException e) {
+            RcpPlugin.log("Failed to read " + url, e); //$NON-NLS-1$
+        } finally {
+            if (zip != null) {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void writeBrokenLinks(File file, List brokenLinks)
+            throws IOException {
+        List sorted;
+        synchronized (brokenLinks) {
+            sorted = new ArrayList(brokenLinks);
+        }
+        Collections.sort(sorted);
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+        try {
+            for (Iterator i = sorted.iterator(); i.hasNext();) {
+                out.write((String) i.next());
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the directory specified by the "-output" parameter (default:
+     *         "export")
+     */
+    private static File computeOutputDirectory() {
+        String[] args = Platform.getCommandLineArgs();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("-output".equalsIgnoreCase(args[i])) { //$NON-NLS-1$
+                return new File(args[i + 1]);
+            }
+        }
+        return new File("export"); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the number of threads specified by the "-parallel" parameter
+     *         (default: number of processors)
+     */
+    private static int computeParallelism() {
+        String[] args = Platform.getCommandLineArgs();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (!"-parallel".equalsIgnoreCase(args[i])) continue; //$NON-NLS-1$
+            try {
+                return Math.max(1, Integer.parseInt(args[i + 1]));
+            } catch (NumberFormatException e) {
+                // no number: use default
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static Locale toLocale(String locale) {
+        int separator = locale.indexOf('_');
+        return separator < 0
+               ? new Locale(locale)
+               : new Locale(locale.substring(0, separator),
+                            locale.substring(separator + 1));
+    }
+
+    /**
+     * Delegates to a {@link IHrefResolver} and records all links which cannot
+     * be resolved and therefore point to an error page.
+     */
+    private static class BrokenLinksRecorder implements IHrefResolver {
+
+        private final IHrefResolver delegate;
+        private final String source;
+        private final List brokenLinks;
+
+        /** The last link which could not be resolved. */
+        private String unresolved;
+
+        private BrokenLinksRecorder(IHrefResolver delegate,
+                                    String source,
+                                    List brokenLinks) {
+            this.delegate = delegate;
+            this.source = source;
+            this.brokenLinks = brokenLinks;
+        }
+
+        public String resolve(String href) {
+            String resolved = delegate.resolve(href);
+            unresolved = resolved == null ? href : null;
+            return resolved;
+        }
+
+        public String getNotFoundHref(String hrefPrefix) {
+            String errorPage = delegate.getNotFoundHref(hrefPrefix);
+            brokenLinks.add(source + '\t' + unresolved + '\t' + errorPage);
+            return errorPage;
+        }
+
+        public String getNotFoundClassName() {
+            return delegate.getNotFoundClassName();
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.rcp.product.internal;
+
+import java.util.Locale;
+
+import net.sf.helpaddons.crosslinkmanager.CrossLinkManagerPlugin;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Background job with lowest priority which warms up the caches of the cross
+ * link manager (see {@link CrossLinkManagerPlugin#warmUp(Locale, String[],
+ * int, IProgressMonitor)}): locates the "doc.zip" files, indexes the
+ * resources of all pool bundles and renders the start page and the most
+ * linked pages, so that opening the first pages is as fast as opening later
+ * ones. The number of most linked pages to render can be set via the system
+ * property {@code net.sf.helpaddons.crosslinkmanager.warmUpPages} (default:
+ * 20).
+ */
+public class CacheWarmUpJob extends Job {
+
+    private static final int MOST_LINKED_PAGES =
+        Integer.getInteger("net.sf.helpaddons.crosslinkmanager.warmUpPages", //$NON-NLS-1$
+                           20).intValue();
+
+    public CacheWarmUpJob() {
+        super(""); //$NON-NLS-1$
+        setPriority(DECORATE); // lowest priority
+        setSystem(true);
+    }
+
+    protected IStatus run(IProgressMonitor monitor) {
+        String startPage =
+            Platform.getPreferencesService().getString("org.eclipse.help.base", //$NON-NLS-1$
+                                                       "help_home", //$NON-NLS-1$
+                                                       null,
+                                                       null);
+        String[] pages = startPage == null
+                         ? new String[0]
+                         : new String[] { startPage };
+        try {
+            CrossLinkManagerPlugin.warmUp(Locale.getDefault(),
+                                          pages,
+                                          MOST_LINKED_PAGES,
+                                          monitor);
+        } catch (InterruptedException e) {
+            return Status.CANCEL_STATUS;
+        } catch (RuntimeException e) {
+            RcpPlugin.log("Warming up caches failed", e); //$NON-NLS-1$
+            return Status.OK_STATUS;
+        }
+        return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+    }
+
+}
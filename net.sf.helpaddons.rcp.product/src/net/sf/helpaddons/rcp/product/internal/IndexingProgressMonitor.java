@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.rcp.product.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Progress monitor which records the elapsed time and the work done while
+ * the search index of a locale is created or updated: in total and per
+ * (sub)task.
+ */
+public class IndexingProgressMonitor implements IProgressMonitor {
+
+    /** The maximum number of recorded tasks (further tasks are merged). */
+    private static final int MAX_TASKS = 1000;
+
+    /** A (sub)task: its name, elapsed time and work done. */
+    public static class Task {
+
+        private final String name;
+        private long elapsedMillis;
+        private double worked;
+
+        private Task(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getWorked() {
+            return worked;
+        }
+
+    }
+
+    private final String locale;
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private long endMillis = -1;
+
+    private String mainTask;
+
+    private int totalWork = UNKNOWN;
+
+    private double worked;
+
+    private final List tasks = new ArrayList();
+
+    private Task currentTask;
+
+    private long currentTaskStartMillis;
+
+    private volatile boolean canceled;
+
+    /**
+     * @param locale the locale of the search index
+     */
+    public IndexingProgressMonitor(String locale) {
+        this.locale = locale;
+    }
+
+    public synchronized void beginTask(String name, int totalWork) {
+        mainTask = name;
+        this.totalWork = totalWork;
+    }
+
+    public synchronized void done() {
+        long now = System.currentTimeMillis();
+        finishCurrentTask(now);
+        endMillis = now;
+    }
+
+    public synchronized void internalWorked(double work) {
+        worked += work;
+        if (currentTask != null) {
+            currentTask.worked += work;
+        }
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public void setCanceled(boolean value) {
+        canceled = value;
+    }
+
+    public synchronized void setTaskName(String name) {
+        mainTask = name;
+    }
+
+    public synchronized void subTask(String name) {
+        if (name == null || name.length() == 0) return;
+        if (currentTask != null && name.equals(currentTask.name)) return;
+        long now = System.currentTimeMillis();
+        finishCurrentTask(now);
+        currentTask = new Task(tasks.size() < MAX_TASKS ? name : "..."); //$NON-NLS-1$
+        currentTaskStartMillis = now;
+    }
+
+    public void worked(int work) {
+        internalWorked(work);
+    }
+
+    private void finishCurrentTask(long now) {
+        if (currentTask == null) return;
+        currentTask.elapsedMillis = now - currentTaskStartMillis;
+
+        // merge with the last task if too many tasks
+        Task last = tasks.isEmpty() ? null : (Task) tasks.get(tasks.size() - 1);
+        if (last != null && last.name.equals(currentTask.name)) {
+            last.elapsedMillis += currentTask.elapsedMillis;
+            last.worked += currentTask.worked;
+        } else {
+            tasks.add(currentTask);
+        }
+        currentTask = null;
+    }
+
+    public String getLocale() {
+        return locale;
+    }
+
+    public synchronized String getMainTask() {
+        return mainTask;
+    }
+
+    public synchronized int getTotalWork() {
+        return totalWork;
+    }
+
+    public synchronized double getWorked() {
+        return worked;
+    }
+
+    /**
+     * @return {@code true} if and only if {@link #done()} has been called
+     */
+    public synchronized boolean isDone() {
+        return endMillis >= 0;
+    }
+
+    /**
+     * @return the elapsed time in milliseconds until {@link #done()} has
+     *         been called or, if not yet done, until now
+     */
+    public synchronized long getElapsedMillis() {
+        return (endMillis >= 0 ? endMillis : System.currentTimeMillis())
+               - startMillis;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return the finished tasks ({@link Task}) in the order of their start
+     */
+    public synchronized List getTasks() {
+        return new ArrayList(tasks);
+    }
+
+}
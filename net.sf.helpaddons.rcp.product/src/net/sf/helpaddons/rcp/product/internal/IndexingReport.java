@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Holger Voormann and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Holger Voormann - initial API and implementation
+ *******************************************************************************/
+package net.sf.helpaddons.rcp.product.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * Writes the summary of an indexing run (see {@link IndexingProgressMonitor})
+ * as JSON file to the state location of this plug-in, e.g.
+ * {@code workspace/.metadata/.plugins/net.sf.helpaddons.rcp.product/indexing-20120131-235959.json}.
+ */
+public class IndexingReport {
+
+    private IndexingReport() {
+        // static methods only
+    }
+
+    /**
+     * @param monitors the {@link IndexingProgressMonitor}s of the run
+     * @return the written file
+     * @throws IOException if the file cannot be written
+     */
+    public static File write(List monitors) throws IOException {
+        File dir = Platform.getStateLocation(Platform.getBundle(RcpPlugin.ID)).toFile();
+        dir.mkdirs();
+        Date now = new Date();
+        File file = new File(dir,
+                             "indexing-" //$NON-NLS-1$
+                             + new SimpleDateFormat("yyyyMMdd-HHmmss").format(now) //$NON-NLS-1$
+                             + ".json"); //$NON-NLS-1$
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+        try {
+            out.write(toJson(monitors, now));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * @param monitors the {@link IndexingProgressMonitor}s of the run
+     * @param date the date of the run
+     * @return the summary as JSON
+     */
+    public static String toJson(List monitors, Date date) {
+        StringBuffer json = new StringBuffer();
+        json.append("{\n  \"date\": "); //$NON-NLS-1$
+        appendString(json, new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(date)); //$NON-NLS-1$
+        json.append(",\n  \"locales\": ["); //$NON-NLS-1$
+        for (Iterator i = monitors.iterator(); i.hasNext();) {
+            IndexingProgressMonitor monitor = (IndexingProgressMonitor) i.next();
+            long elapsed = monitor.getElapsedMillis();
+            double worked = monitor.getWorked();
+            json.append("\n    {\"locale\": "); //$NON-NLS-1$
+            appendString(json, monitor.getLocale());
+            json.append(", \"task\": "); //$NON-NLS-1$
+            appendString(json, monitor.getMainTask());
+            json.append(", \"done\": ").append(monitor.isDone()); //$NON-NLS-1$
+            json.append(", \"elapsedMillis\": ").append(elapsed); //$NON-NLS-1$
+            json.append(", \"totalWork\": ").append(monitor.getTotalWork()); //$NON-NLS-1$
+            json.append(", \"worked\": ").append(worked); //$NON-NLS-1$
+            json.append(", \"workedPerSecond\": ") //$NON-NLS-1$
+                .append(elapsed == 0 ? 0 : Math.round(worked * 1000 / elapsed));
+            json.append(",\n     \"tasks\": ["); //$NON-NLS-1$
+            for (Iterator j = monitor.getTasks().iterator(); j.hasNext();) {
+                IndexingProgressMonitor.Task task =
+                    (IndexingProgressMonitor.Task) j.next();
+                json.append("\n       {\"name\": "); //$NON-NLS-1$
+                appendString(json, task.getName());
+                json.append(", \"elapsedMillis\": ").append(task.getElapsedMillis()); //$NON-NLS-1$
+                json.append(", \"worked\": ").append(task.getWorked()); //$NON-NLS-1$
+                json.append(j.hasNext() ? "}," : "}"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            json.append("]}").append(i.hasNext() ? "," : ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        json.append("\n  ]\n}\n"); //$NON-NLS-1$
+        return json.toString();
+    }
+
+    private static void appendString(StringBuffer json, String value) {
+        if (value == null) {
+            json.append("null"); //$NON-NLS-1$
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\""); //$NON-NLS-1$
+                    break;
+                case '\\':
+                    json.append("\\\\"); //$NON-NLS-1$
+                    break;
+                case '\n':
+                    json.append("\\n"); //$NON-NLS-1$
+                    break;
+                case '\r':
+                    json.append("\\r"); //$NON-NLS-1$
+                    break;
+                case '\t':
+                    json.append("\\t"); //$NON-NLS-1$
+                    break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        json.append(hex.length() == 1 ? "\\u000" : "\\u00") //$NON-NLS-1$ //$NON-NLS-2$
+                            .append(hex);
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+}